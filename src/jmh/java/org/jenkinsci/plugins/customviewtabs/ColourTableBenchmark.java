@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.customviewtabs.ColourRule.Metric;
+import org.jenkinsci.plugins.customviewtabs.ColourRule.Operator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of colouring a tab bar of 200 tabs, with the fixed status colours and with colour rules.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColourTableBenchmark {
+
+    private static final int TABS = 200;
+
+    @Param({ "0", "4", "16" })
+    public int rules;
+
+    private TabColours legacy;
+    private ColourTable table;
+    private JobStatusCount[] counts;
+
+    @Setup
+    public void setUp() {
+
+        legacy = new TabColours();
+        legacy.setTabColourFailed("ff0000");
+        legacy.setTabColourUnstable("ffff00");
+        legacy.setTabColourDisabled("cdc9c9");
+
+        List<ColourRule> colourRules = new ArrayList<ColourRule>();
+        for (int i = 0; i < rules; i++) {
+            colourRules.add(new ColourRule(Metric.values()[i % 5], (i % 2) == 0, Operator.GT, 50 + i, "0000ff"));
+        }
+
+        table = ColourTable.compile(colourRules, legacy);
+
+        counts = new JobStatusCount[TABS];
+        for (int i = 0; i < TABS; i++) {
+            counts[i] = new JobStatusCount(SyntheticViews.view(10 + i, 1), new ViewItemExtractor(), false);
+        }
+    }
+
+    @Benchmark
+    public void tabColours(Blackhole blackhole) {
+        for (JobStatusCount count : counts) {
+            blackhole.consume(legacy.getColourFor(count));
+        }
+    }
+
+    @Benchmark
+    public void colourTable(Blackhole blackhole) {
+        for (JobStatusCount count : counts) {
+            blackhole.consume(table.colourFor(count));
+        }
+    }
+}
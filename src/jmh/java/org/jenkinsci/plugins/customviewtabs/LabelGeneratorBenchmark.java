@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of generating one tab label, with the original string replacement and with the compiled
+ * templates.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelGeneratorBenchmark {
+
+    @Param({ "$N1", "$N2 $T", "$N3 ($F/$U/$D of $T)" })
+    public String pattern;
+
+    private String displayName;
+    private JobStatusCount jobCount;
+
+    private StringReplacementLabelGenerator stringReplacement;
+    private TemplateLabelGenerator templates;
+
+    @Setup
+    public void setUp() {
+
+        displayName = "Integration Tests For Release";
+        jobCount = new JobStatusCount(SyntheticViews.view(100, 1), new ViewItemExtractor(), false);
+
+        stringReplacement = new StringReplacementLabelGenerator("(\\w)\\w*|\\s", "$1", 3);
+        templates = new TemplateLabelGenerator(pattern, "$N1",
+                new NameTransformer("(\\w)\\w*|\\s", "$1", 3));
+    }
+
+    @Benchmark
+    public String stringReplacement() {
+        return stringReplacement.generateLabel(displayName, jobCount, pattern);
+    }
+
+    @Benchmark
+    public String templates() {
+        return templates.generateLabel(displayName, jobCount, pattern);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import hudson.model.BallColor;
+import hudson.model.Job;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+import hudson.plugins.nested_view.NestedView;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds views full of jobs for the benchmarks, without a running Jenkins. Items and views are
+ * EasyMock stubs, as in the unit tests, so every call into them costs the same before and after a
+ * change to the plugin.
+ * <p>
+ * Run the benchmarks with {@code mvn -P benchmark test-compile exec:exec}. Pass JMH options with
+ * {@code -Djmh.args="..."}, for example {@code -Djmh.args="JobStatusCount -prof gc"}.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+final class SyntheticViews {
+
+    /** Child views under each nested view. */
+    static final int FANOUT = 2;
+
+    private SyntheticViews() {
+    }
+
+    /**
+     * A view of the given number of jobs. At depth 1 this is a plain view, otherwise the jobs are
+     * spread across the leaves of a tree of nested views.
+     *
+     * @param items
+     *            number of jobs
+     * @param depth
+     *            levels of views, from 1
+     * @return view
+     */
+    static View view(int items, int depth) {
+
+        int leaves = 1;
+        for (int i = 1; i < depth; i++) {
+            leaves *= FANOUT;
+        }
+
+        List<View> leafViews = new ArrayList<View>(leaves);
+        int next = 0;
+
+        for (int leaf = 0; leaf < leaves; leaf++) {
+
+            int count = (items / leaves) + ((leaf < (items % leaves)) ? 1 : 0);
+            leafViews.add(plainView("leaf-" + leaf, items(next, count)));
+            next += count;
+        }
+
+        return nest(leafViews, depth);
+    }
+
+    private static View nest(List<View> views, int depth) {
+
+        if (depth == 1) {
+            return views.get(0);
+        }
+
+        List<View> parents = new ArrayList<View>(views.size() / FANOUT);
+
+        for (int i = 0; i < views.size(); i += FANOUT) {
+            parents.add(nestedView("nested-" + depth + "-" + i, views.subList(i, i + FANOUT)));
+        }
+
+        return nest(parents, depth - 1);
+    }
+
+    private static View plainView(String name, Collection<TopLevelItem> items) {
+
+        View v = createMock(View.class);
+
+        expect(v.getViewName()).andStubReturn(name);
+        expect(v.getDisplayName()).andStubReturn(name);
+        expect(v.getItems()).andStubReturn(items);
+        replay(v);
+
+        return v;
+    }
+
+    private static View nestedView(String name, List<View> children) {
+
+        NestedView v = createMock(NestedView.class);
+
+        expect(v.getViewName()).andStubReturn(name);
+        expect(v.getDisplayName()).andStubReturn(name);
+        expect(v.getViews()).andStubReturn(Collections.unmodifiableList(new ArrayList<View>(children)));
+        replay(v);
+
+        return v;
+    }
+
+    /**
+     * Jobs numbered from {@code first}, mostly successful with some failed, unstable and disabled.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static Collection<TopLevelItem> items(int first, int count) {
+
+        List<TopLevelItem> items = new ArrayList<TopLevelItem>(count);
+
+        for (int i = first; i < (first + count); i++) {
+
+            Job job = createMock(Job.class);
+            expect(job.getIconColor()).andStubReturn(colour(i));
+            replay(job);
+
+            TopLevelItem item = createMock(TopLevelItem.class);
+            expect(item.getName()).andStubReturn("job-" + i);
+            expect(item.getFullName()).andStubReturn("job-" + i);
+            expect(item.getAllJobs()).andStubReturn((Collection) Collections.singletonList(job));
+            replay(item);
+
+            items.add(item);
+        }
+
+        return items;
+    }
+
+    private static BallColor colour(int i) {
+
+        switch (i % 20) {
+            case 7:
+            case 13:
+                return BallColor.RED;
+            case 11:
+                return BallColor.YELLOW;
+            case 17:
+                return BallColor.DISABLED;
+            default:
+                return BallColor.BLUE;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.View;
+
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.customviewtabs.CustomViewsTabBar.CustomViewsTabBarDescriptor;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the tab data for one view, as the tab bar asks for it, with and without the counts
+ * already cached. The descriptor needs a running Jenkins, which is started once per fork.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TabDataBenchmark {
+
+    @Param({ "100", "1000", "10000", "50000" })
+    public int items;
+
+    @Param({ "1", "3", "5" })
+    public int depth;
+
+    @Param({ "$N1", "$N2 $T", "$N3 ($F/$U/$D of $T)" })
+    public String pattern;
+
+    private JenkinsRule jenkins;
+    private View view;
+    private CustomViewsTabBar tabBar;
+    private TabStatusCache statusCache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+
+        jenkins = new JenkinsRule();
+        jenkins.apply(new Statement() {
+            @Override
+            public void evaluate() {
+            }
+        }, Description.createTestDescription(TabDataBenchmark.class, "getTabData"));
+        jenkins.before();
+
+        CustomViewsTabBarDescriptor d = jenkins.jenkins.getDescriptorByType(CustomViewsTabBarDescriptor.class);
+
+        JSONObject config = new JSONObject();
+        config.put("patternActiveTab", pattern);
+        config.put("patternInactiveTab", pattern);
+        config.put("shortNameLength", 3);
+        config.put("nameRegexMatch", "(\\w)\\w*|\\s");
+        config.put("nameRegexReplacement", "$1");
+        config.put("conditionActiveTab", false);
+        config.put("conditionInactiveTab", false);
+        config.put("historySize", 12);
+        config.put("historyInterval", 300);
+        config.put("asyncCounts", false);
+        config.put("liveCounts", true);
+        config.put("refreshInterval", 10);
+        config.put("maxStaleness", 60);
+        config.put("slowViewThreshold", 0);
+        config.put("countBudget", 0);
+        config.put("maxTabs", 0);
+        config.put("pinnedViews", "");
+        config.put("tabColourDefault", "");
+        config.put("tabColourDisabled", "cdc9c9");
+        config.put("tabColourUnstable", "ffff00");
+        config.put("tabColourFailed", "ff0000");
+        config.put("tabColourCustom1", "");
+        config.put("tabColourCustom2", "");
+        config.put("tabColourCustom3", "");
+        config.put("tabColourCustom4", "");
+        d.configure(null, config);
+
+        view = SyntheticViews.view(items, depth);
+        tabBar = new CustomViewsTabBar();
+        statusCache = d.getStatusCache();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        jenkins.after();
+    }
+
+    @Benchmark
+    public TabDisplayMetaData cached() {
+        return tabBar.getTabData(view);
+    }
+
+    @Benchmark
+    public TabDisplayMetaData uncached() {
+        statusCache.invalidateAll();
+        return tabBar.getTabData(view);
+    }
+}
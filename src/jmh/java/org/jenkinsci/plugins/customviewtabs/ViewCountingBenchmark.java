@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of walking and counting the jobs in one view, for views of different sizes and nesting.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewCountingBenchmark {
+
+    @Param({ "100", "1000", "10000", "50000" })
+    public int items;
+
+    @Param({ "1", "3", "5" })
+    public int depth;
+
+    private View view;
+    private ViewItemExtractor extractor;
+
+    @Setup
+    public void setUp() {
+        view = SyntheticViews.view(items, depth);
+        extractor = new ViewItemExtractor();
+    }
+
+    @Benchmark
+    public Collection<TopLevelItem> getItemsInView() {
+        return extractor.getItemsInView(view);
+    }
+
+    @Benchmark
+    public JobStatusCount countItemsInView() {
+        return new JobStatusCount(extractor.getItemsInView(view));
+    }
+
+    @Benchmark
+    public JobStatusCount countWhileVisiting() {
+        return new JobStatusCount(view, extractor, false);
+    }
+
+    @Benchmark
+    public JobStatusCount countUntilFailure() {
+        return new JobStatusCount(view, extractor, true);
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import hudson.model.FreeStyleProject;
+import hudson.model.ListView;
+import hudson.model.View;
+import hudson.plugins.nested_view.NestedView;
+import hudson.util.PluginServletFilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.customviewtabs.CustomViewsTabBar.CustomViewsTabBarDescriptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.FailureBuilder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.UnstableBuilder;
+
+/**
+ * Renders the tab bar in a real Jenkins under load. Thousands of jobs are spread across hundreds of
+ * list views, some of them nested, and many clients request view pages and the tabs JSON at once
+ * over HTTP. The render latency percentiles and the bytes allocated by the request thread for each
+ * request are printed at the end.
+ * <p>
+ * Only compiled and run with the load profile, {@code mvn -P load test -Dtest=TabBarLoadTest}. The
+ * size of the load can be changed with {@code -Dload.jobs}, {@code -Dload.views},
+ * {@code -Dload.nested}, {@code -Dload.clients} and {@code -Dload.requests}.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TabBarLoadTest {
+
+    private static final int JOBS = Integer.getInteger("load.jobs", 2000);
+    private static final int VIEWS = Integer.getInteger("load.views", 200);
+    private static final int NESTED = Integer.getInteger("load.nested", 20);
+    private static final int CLIENTS = Integer.getInteger("load.clients", 16);
+    private static final int REQUESTS = Integer.getInteger("load.requests", 100);
+
+    /** Views sharing each group of jobs, so that jobs appear in more than one view. */
+    private static final int VIEWS_PER_GROUP = 2;
+
+    /** Nested view children, taken from the list views. */
+    private static final int CHILDREN = 5;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final AllocationFilter allocations = new AllocationFilter();
+    private final List<String> viewUrls = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+
+        CustomViewsTabBarDescriptor d = j.jenkins.getDescriptorByType(CustomViewsTabBarDescriptor.class);
+        d.configure(null, config());
+        j.jenkins.setViewsTabBar(new CustomViewsTabBar());
+
+        int groups = Math.max(1, VIEWS / VIEWS_PER_GROUP);
+
+        for (int i = 0; i < JOBS; i++) {
+
+            FreeStyleProject p = j.createFreeStyleProject("job-" + (i % groups) + "-" + i);
+
+            if ((i % 25) == 0) {
+                p.disable();
+            }
+            else if ((i % 20) == 0) {
+                p.getBuildersList().add(((i % 40) == 0) ? new FailureBuilder() : new UnstableBuilder());
+                p.scheduleBuild2(0).get();
+            }
+            else if ((i % 10) == 0) {
+                j.buildAndAssertSuccess(p);
+            }
+        }
+
+        List<ListView> lists = new ArrayList<ListView>(VIEWS);
+
+        for (int i = 0; i < VIEWS; i++) {
+
+            ListView list = new ListView("list-" + i, j.jenkins);
+            list.setIncludeRegex("job-" + (i % groups) + "-.*");
+            j.jenkins.addView(list);
+
+            lists.add(list);
+            viewUrls.add(list.getUrl());
+        }
+
+        for (int i = 0; i < NESTED; i++) {
+
+            NestedView nested = new NestedView("nested-" + i);
+            j.jenkins.addView(nested);
+
+            for (int c = 0; c < CHILDREN; c++) {
+
+                ListView child = new ListView("child-" + i + "-" + c, nested);
+                child.setIncludeRegex(lists.get(((i * CHILDREN) + c) % lists.size()).getIncludeRegex());
+                addChild(nested, child);
+            }
+
+            viewUrls.add(nested.getUrl());
+        }
+
+        PluginServletFilter.addFilter(allocations);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        PluginServletFilter.removeFilter(allocations);
+    }
+
+    @Test
+    public void shouldRenderTabBarUnderConcurrentLoad() throws Exception {
+
+        // Load the classes, compile the templates and fill the caches before measuring
+        run("warmup", "", 1);
+
+        Result pages = run("view pages", "", REQUESTS);
+        Result tabs = run("tabs JSON", TabStatusAction.URL_NAME + "/tabs", REQUESTS);
+
+        System.out.println("Tab bar load: " + JOBS + " jobs, " + VIEWS + " list views, " + NESTED
+                + " nested views, " + CLIENTS + " clients");
+        System.out.println(pages);
+        System.out.println(tabs);
+
+        assertThat(pages.errors, is(0));
+        assertThat(tabs.errors, is(0));
+    }
+
+    /**
+     * Have every client request random views, as fast as they can.
+     *
+     * @param name
+     *            what is being requested
+     * @param suffix
+     *            path after the view URL
+     * @param requests
+     *            requests for each client
+     * @return latencies and allocation for the requests
+     */
+    private Result run(String name, final String suffix, final int requests) throws Exception {
+
+        final String root = j.getURL().toString();
+        final AtomicInteger errors = new AtomicInteger();
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>(CLIENTS);
+
+        allocations.reset();
+
+        try {
+            for (int c = 0; c < CLIENTS; c++) {
+
+                final Random random = new Random(c);
+
+                futures.add(clients.submit(new Callable<long[]>() {
+                    public long[] call() throws Exception {
+
+                        long[] latencies = new long[requests];
+
+                        for (int r = 0; r < requests; r++) {
+
+                            String url = root + viewUrls.get(random.nextInt(viewUrls.size())) + suffix;
+
+                            long start = System.nanoTime();
+                            if (!get(url)) {
+                                errors.incrementAndGet();
+                            }
+                            latencies[r] = System.nanoTime() - start;
+                        }
+
+                        return latencies;
+                    }
+                }));
+            }
+
+            long[] all = new long[CLIENTS * requests];
+            for (int c = 0; c < CLIENTS; c++) {
+                System.arraycopy(futures.get(c).get(), 0, all, c * requests, requests);
+            }
+
+            return new Result(name, all, errors.get(), allocations.getMeanBytes());
+        }
+        finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private static boolean get(String url) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+
+        try {
+            InputStream in = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) >= 0) {
+                    // Read the whole page, as a browser would
+                }
+            }
+            finally {
+                in.close();
+            }
+
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        }
+        catch (IOException e) {
+            return false;
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Older versions of nested-view only add child views through their form, so fall back to the
+     * view list when there is no addView method.
+     */
+    @SuppressWarnings("unchecked")
+    private static void addChild(NestedView nested, View child) throws Exception {
+
+        try {
+            Method addView = nested.getClass().getMethod("addView", View.class);
+            addView.invoke(nested, child);
+        }
+        catch (NoSuchMethodException e) {
+            Field views = NestedView.class.getDeclaredField("views");
+            views.setAccessible(true);
+            ((List<View>) views.get(nested)).add(child);
+        }
+    }
+
+    private static JSONObject config() {
+
+        JSONObject config = new JSONObject();
+        config.put("patternActiveTab", "$N1 ($F/$U/$D of $T)");
+        config.put("patternInactiveTab", "$N3 $T");
+        config.put("shortNameLength", 3);
+        config.put("nameRegexMatch", "(\\w)\\w*|\\s");
+        config.put("nameRegexReplacement", "$1");
+        config.put("conditionActiveTab", false);
+        config.put("conditionInactiveTab", false);
+        config.put("historySize", 12);
+        config.put("historyInterval", 300);
+        config.put("asyncCounts", false);
+        config.put("liveCounts", true);
+        config.put("refreshInterval", 10);
+        config.put("maxStaleness", 60);
+        config.put("slowViewThreshold", 0);
+        config.put("countBudget", 0);
+        config.put("maxTabs", 0);
+        config.put("pinnedViews", "");
+        config.put("tabColourDefault", "");
+        config.put("tabColourDisabled", "cdc9c9");
+        config.put("tabColourUnstable", "ffff00");
+        config.put("tabColourFailed", "ff0000");
+        config.put("tabColourCustom1", "");
+        config.put("tabColourCustom2", "");
+        config.put("tabColourCustom3", "");
+        config.put("tabColourCustom4", "");
+
+        return config;
+    }
+
+    /**
+     * Latency percentiles and mean allocation for one kind of request.
+     */
+    private static final class Result {
+
+        private final String name;
+        private final long[] latencies;
+        private final int errors;
+        private final long meanBytes;
+
+        Result(String name, long[] latencies, int errors, long meanBytes) {
+
+            this.name = name;
+            this.latencies = latencies.clone();
+            this.errors = errors;
+            this.meanBytes = meanBytes;
+
+            Arrays.sort(this.latencies);
+        }
+
+        long percentileMillis(double p) {
+
+            if (latencies.length == 0) {
+                return 0;
+            }
+
+            return latencies[(int) Math.ceil(latencies.length * p) - 1] / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d requests, %d errors, p50 %dms, p95 %dms, p99 %dms, %d KB allocated per request",
+                    name, latencies.length, errors, percentileMillis(0.50), percentileMillis(0.95),
+                    percentileMillis(0.99), meanBytes / 1024);
+        }
+    }
+
+    /**
+     * Measures the bytes allocated by the request thread while Jenkins handles each request to a
+     * view, which is what rendering the page cost, leaving out the clients.
+     */
+    private static final class AllocationFilter implements Filter {
+
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        public void init(FilterConfig config) {
+        }
+
+        public void doFilter(ServletRequest req, ServletResponse rsp, FilterChain chain) throws IOException,
+                ServletException {
+
+            if (!((HttpServletRequest) req).getRequestURI().contains("/view/")) {
+                chain.doFilter(req, rsp);
+                return;
+            }
+
+            long id = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(id);
+
+            try {
+                chain.doFilter(req, rsp);
+            }
+            finally {
+                bytes.addAndGet(threads.getThreadAllocatedBytes(id) - before);
+                requests.incrementAndGet();
+            }
+        }
+
+        public void destroy() {
+        }
+
+        void reset() {
+            requests.set(0);
+            bytes.set(0);
+        }
+
+        long getMeanBytes() {
+            long n = requests.get();
+            return (n == 0) ? 0 : bytes.get() / n;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+
+import java.util.regex.Pattern;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * One rule for colouring tabs, such as "failed jobs are more than 20% of all jobs" or "at least 5
+ * jobs are disabled". Rules are tried in order and the first one that matches colours the tab. They
+ * are compiled into a {@link ColourTable} rather than evaluated from here.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class ColourRule extends AbstractDescribableImpl<ColourRule> {
+
+    private static final Pattern HEX_COLOUR = Pattern.compile("#?[0-9a-fA-F]{6}");
+
+    /**
+     * Which count the rule looks at.
+     */
+    public enum Metric {
+
+        FAILED("Failed jobs"),
+        UNSTABLE("Unstable jobs"),
+        DISABLED("Disabled jobs"),
+        SUCCESSFUL("Successful jobs"),
+        TOTAL("All jobs");
+
+        private final String displayName;
+
+        private Metric(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * How the count is compared with the threshold.
+     */
+    public enum Operator {
+
+        GT(">"),
+        GE(">="),
+        LT("<"),
+        LE("<="),
+        EQ("=");
+
+        private final String symbol;
+
+        private Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+    }
+
+    private final Metric metric;
+    private final boolean ratio;
+    private final Operator operator;
+    private final int threshold;
+    private final String colour;
+
+    /**
+     * @param metric
+     *            count to look at
+     * @param ratio
+     *            compare the count as a percentage of all jobs rather than as a number
+     * @param operator
+     *            comparison
+     * @param threshold
+     *            number of jobs, or percentage of all jobs
+     * @param colour
+     *            6 character hex colour code, with or without a leading #
+     */
+    @DataBoundConstructor
+    public ColourRule(Metric metric, boolean ratio, Operator operator, int threshold, String colour) {
+        this.metric = metric;
+        this.ratio = ratio;
+        this.operator = operator;
+        this.threshold = threshold;
+        this.colour = (colour == null) ? "" : colour.trim();
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    public boolean isRatio() {
+        return ratio;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public String getColour() {
+        return colour;
+    }
+
+    /**
+     * @return colour code without a leading #, as tabs use it
+     */
+    String getColourCode() {
+        return colour.startsWith("#") ? colour.substring(1) : colour;
+    }
+
+    @Override
+    public String toString() {
+        return metric + (ratio ? " % " : " ") + operator.getSymbol() + " " + threshold + " -> " + colour;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<ColourRule> {
+
+        @Override
+        public String getDisplayName() {
+            return "Colour rule";
+        }
+
+        public FormValidation doCheckColour(@QueryParameter String value) {
+
+            if ((value == null) || value.trim().isEmpty() || HEX_COLOUR.matcher(value.trim()).matches()) {
+                return FormValidation.ok();
+            }
+
+            return FormValidation.error("Enter a 6 character hex colour code such as ff0000");
+        }
+
+        public FormValidation doCheckThreshold(@QueryParameter String value) {
+
+            try {
+                if (Integer.parseInt(value.trim()) >= 0) {
+                    return FormValidation.ok();
+                }
+            }
+            catch (NumberFormatException e) {
+                // Reported below
+            }
+
+            return FormValidation.error("Enter a number of jobs, or a percentage, of 0 or more");
+        }
+    }
+}
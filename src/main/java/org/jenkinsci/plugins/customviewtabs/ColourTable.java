@@ -0,0 +1,264 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jenkinsci.plugins.customviewtabs.ColourRule.Metric;
+import org.jenkinsci.plugins.customviewtabs.ColourRule.Operator;
+
+/**
+ * Colour rules compiled into parallel arrays, so that colouring a tab is a loop over a few ints
+ * with no strings or objects involved. The counts are read once and every rule is checked against
+ * them in order. The failed, unstable and disabled colours from the original settings follow the
+ * configured rules, so a configuration with no rules colours tabs exactly as it always has.
+ * <p>
+ * Percentages are compared by multiplying rather than dividing, and never match a view with no
+ * jobs.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public final class ColourTable {
+
+    private static final int FAILED = 0;
+    private static final int UNSTABLE = 1;
+    private static final int DISABLED = 2;
+    private static final int SUCCESSFUL = 3;
+    private static final int TOTAL = 4;
+
+    private static final int GT = 0;
+    private static final int GE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int EQ = 4;
+
+    private final int[] metrics;
+    private final boolean[] ratios;
+    private final int[] operators;
+    private final long[] thresholds;
+    private final String[] colours;
+
+    private final String defaultColour;
+    private final int configuredRules;
+
+    private ColourTable(List<Row> rows, String defaultColour, int configuredRules) {
+
+        int n = rows.size();
+
+        metrics = new int[n];
+        ratios = new boolean[n];
+        operators = new int[n];
+        thresholds = new long[n];
+        colours = new String[n];
+
+        for (int i = 0; i < n; i++) {
+            Row row = rows.get(i);
+            metrics[i] = row.metric;
+            ratios[i] = row.ratio;
+            operators[i] = row.operator;
+            thresholds[i] = row.threshold;
+            colours[i] = row.colour;
+        }
+
+        this.defaultColour = defaultColour;
+        this.configuredRules = configuredRules;
+    }
+
+    /**
+     * Compile the rules, followed by the original failed, unstable and disabled colours.
+     *
+     * @param rules
+     *            configured rules in order, may be null
+     * @param legacy
+     *            default and status colours
+     * @return decision table
+     */
+    public static ColourTable compile(List<ColourRule> rules, TabColours legacy) {
+
+        List<Row> rows = new ArrayList<Row>();
+
+        if (rules != null) {
+            for (ColourRule rule : rules) {
+                if ((rule.getMetric() != null) && (rule.getOperator() != null)) {
+                    rows.add(new Row(metricIndex(rule.getMetric()), rule.isRatio(), operatorIndex(rule.getOperator()),
+                            rule.getThreshold(), rule.getColourCode()));
+                }
+            }
+        }
+
+        int configured = rows.size();
+
+        rows.add(new Row(FAILED, false, GT, 0, legacy.getTabColourFailed()));
+        rows.add(new Row(UNSTABLE, false, GT, 0, legacy.getTabColourUnstable()));
+        rows.add(new Row(DISABLED, false, GT, 0, legacy.getTabColourDisabled()));
+
+        return new ColourTable(rows, legacy.getTabColourDefault(), configured);
+    }
+
+    /**
+     * Colour for a tab.
+     *
+     * @param jobCount
+     *            job status counts for the view
+     * @return colour of the first rule that matches, or the default colour
+     */
+    public String colourFor(JobStatusCount jobCount) {
+
+        int failed = jobCount.failed();
+        int unstable = jobCount.unstable();
+        int disabled = jobCount.disabled();
+        int successful = jobCount.successful();
+        int total = jobCount.total();
+
+        for (int i = 0; i < metrics.length; i++) {
+
+            long value;
+            switch (metrics[i]) {
+                case FAILED:
+                    value = failed;
+                    break;
+                case UNSTABLE:
+                    value = unstable;
+                    break;
+                case DISABLED:
+                    value = disabled;
+                    break;
+                case SUCCESSFUL:
+                    value = successful;
+                    break;
+                default:
+                    value = total;
+                    break;
+            }
+
+            long threshold = thresholds[i];
+
+            if (ratios[i]) {
+                if (total == 0) {
+                    continue;
+                }
+                value *= 100;
+                threshold *= total;
+            }
+
+            if (matches(operators[i], value, threshold)) {
+                return colours[i];
+            }
+        }
+
+        return defaultColour;
+    }
+
+    public String getDefaultColour() {
+        return defaultColour;
+    }
+
+    /**
+     * Whether any configured rule needs every job counted. The original colours only need to know
+     * whether there are any failed, unstable or disabled jobs.
+     *
+     * @return true if there are configured rules
+     */
+    public boolean needsFullCounts() {
+        return configuredRules > 0;
+    }
+
+    /**
+     * Whether the colour can change with job status at all.
+     *
+     * @return true if any rule gives a colour other than the default
+     */
+    public boolean dependsOnStatus() {
+
+        for (String colour : colours) {
+            if (!colour.equalsIgnoreCase(defaultColour)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int size() {
+        return metrics.length;
+    }
+
+    private static boolean matches(int operator, long value, long threshold) {
+
+        switch (operator) {
+            case GT:
+                return value > threshold;
+            case GE:
+                return value >= threshold;
+            case LT:
+                return value < threshold;
+            case LE:
+                return value <= threshold;
+            default:
+                return value == threshold;
+        }
+    }
+
+    private static int metricIndex(Metric metric) {
+
+        switch (metric) {
+            case FAILED:
+                return FAILED;
+            case UNSTABLE:
+                return UNSTABLE;
+            case DISABLED:
+                return DISABLED;
+            case SUCCESSFUL:
+                return SUCCESSFUL;
+            default:
+                return TOTAL;
+        }
+    }
+
+    private static int operatorIndex(Operator operator) {
+
+        switch (operator) {
+            case GT:
+                return GT;
+            case GE:
+                return GE;
+            case LT:
+                return LT;
+            case LE:
+                return LE;
+            default:
+                return EQ;
+        }
+    }
+
+    private static final class Row {
+
+        private final int metric;
+        private final boolean ratio;
+        private final int operator;
+        private final long threshold;
+        private final String colour;
+
+        Row(int metric, boolean ratio, int operator, long threshold, String colour) {
+            this.metric = metric;
+            this.ratio = ratio;
+            this.operator = operator;
+            this.threshold = threshold;
+            this.colour = colour;
+        }
+    }
+}
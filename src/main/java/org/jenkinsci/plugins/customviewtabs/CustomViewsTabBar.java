@@ -16,13 +16,31 @@
 package org.jenkinsci.plugins.customviewtabs;
 
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.View;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import hudson.views.ViewsTabBar;
 import hudson.views.ViewsTabBarDescriptor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 import net.sf.json.JSONObject;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 /**
@@ -33,8 +51,6 @@ import org.kohsuke.stapler.StaplerRequest;
  */
 public class CustomViewsTabBar extends ViewsTabBar {
 
-    private ViewItemExtractor extractor = new ViewItemExtractor();
-
     @DataBoundConstructor
     public CustomViewsTabBar() {
         super();
@@ -47,51 +63,377 @@ public class CustomViewsTabBar extends ViewsTabBar {
 
     public TabDisplayMetaData getTabData(View v) {
 
-        JobStatusCount jobCount = new JobStatusCount(extractor.getItemsInView(v));
+        CustomViewsTabBarDescriptor d = getDescriptor();
+        TabBarConfig config = d.getConfig();
+
+        return tabDataFor(v, getAllCounts(Collections.singletonList(v)).get(0), config, d);
+    }
+
+    public TabDisplayMetaData getTabData(View v, JobStatusCount jobCount) {
+
+        CustomViewsTabBarDescriptor d = getDescriptor();
+
+        return tabDataFor(v, jobCount, d.getConfig(), d);
+    }
+
+    /**
+     * Get the tab data for a view with a configuration already read for the rest of the tabs.
+     *
+     * @param v
+     *            view
+     * @param jobCount
+     *            job status counts for the view, or null if it wasn't counted in time
+     * @param config
+     *            configuration the tab bar is being rendered with
+     * @return tab data, which can't be changed
+     */
+    public TabDisplayMetaData getTabData(View v, JobStatusCount jobCount, TabBarConfig config) {
+        return tabDataFor(v, jobCount, config, getDescriptor());
+    }
+
+    /**
+     * Get the tab data for every view in the tab bar, in the same order as the views.
+     *
+     * @param views
+     *            views in the tab bar
+     * @return tab data for each view
+     */
+    public List<TabDisplayMetaData> getAllTabData(Collection<? extends View> views) {
+
+        CustomViewsTabBarDescriptor d = getDescriptor();
+        TabBarConfig config = d.getConfig();
+
+        List<View> viewList = new ArrayList<View>(views);
+
+        return tabDataFor(viewList, getAllCounts(viewList), config, d);
+    }
+
+    private List<TabDisplayMetaData> tabDataFor(List<View> views, List<JobStatusCount> counts, TabBarConfig config,
+            CustomViewsTabBarDescriptor d) {
+
+        List<TabDisplayMetaData> tabData = new ArrayList<TabDisplayMetaData>(views.size());
+
+        for (int i = 0; i < views.size(); i++) {
+            tabData.add(tabDataFor(views.get(i), counts.get(i), config, d));
+        }
+
+        return tabData;
+    }
+
+    /**
+     * Get the job counts for every view in the tab bar, in the same order as the views. Views with
+     * cached counts are done straight away and the rest are counted in parallel. The counts are
+     * only as complete as the labels and colours need them to be.
+     * <p>
+     * With a {@link TabTimeBudget time budget}, views that aren't counted in time have no counts
+     * and are shown with just their names.
+     *
+     * @param views
+     *            views in the tab bar
+     * @return job counts for each view, or null for views that weren't counted in time
+     */
+    public List<JobStatusCount> getAllCounts(Collection<? extends View> views) {
+
+        CustomViewsTabBarDescriptor d = getDescriptor();
+        TabSnapshots cache = d.getSnapshots();
+        TabTimeBudget budget = d.getTimeBudget();
+
+        List<View> viewList = new ArrayList<View>(views);
+        List<JobStatusCount> counts = new ArrayList<JobStatusCount>(viewList.size());
+        List<Integer> uncounted = new ArrayList<Integer>();
+
+        for (View v : viewList) {
+
+            JobStatusCount jobCount = cache.cachedCountFor(v);
+
+            if (jobCount == null) {
+                uncounted.add(counts.size());
+            }
+
+            counts.add(jobCount);
+        }
+
+        if (uncounted.isEmpty()) {
+            return counts;
+        }
+
+        if (budget.isEnabled()) {
+            budget.countWithin(viewList, uncounted, counts);
+        }
+        else if (uncounted.size() == 1) {
+            int i = uncounted.get(0);
+            counts.set(i, cache.countFor(viewList.get(i)));
+        }
+        else {
+            countInParallel(cache, viewList, uncounted, counts);
+        }
+
+        return counts;
+    }
+
+    private void countInParallel(final TabSnapshots cache, List<View> views, List<Integer> uncounted,
+            List<JobStatusCount> counts) {
+
+        List<Future<JobStatusCount>> futures = new ArrayList<Future<JobStatusCount>>(uncounted.size());
 
-        return new TabDisplayMetaData(labelsFor(v, jobCount), colourFor(jobCount));
+        for (int i : uncounted) {
+
+            final View v = views.get(i);
+
+            futures.add(TabDataPool.submit(new Callable<JobStatusCount>() {
+                public JobStatusCount call() {
+                    return cache.countFor(v);
+                }
+            }));
+        }
+
+        for (int f = 0; f < futures.size(); f++) {
+
+            int i = uncounted.get(f);
+
+            try {
+                counts.set(i, futures.get(f).get());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                counts.set(i, cache.countFor(views.get(i)));
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Get the views that get a tab of their own. Beyond the configured number of tabs, the rest
+     * are left for the "more" menu.
+     *
+     * @param views
+     *            views in the tab bar
+     * @param currentView
+     *            the view being shown
+     * @return views to render tabs for, in tab bar order
+     */
+    public List<View> getShownViews(Collection<? extends View> views, View currentView) {
+
+        CustomViewsTabBarDescriptor d = getDescriptor();
+        TabBarConfig config = d.getConfig();
+
+        List<View> viewList = new ArrayList<View>(views);
+
+        if (config.getMaxTabs() <= 0) {
+            return viewList;
+        }
+
+        d.getOverflow().shown(currentView);
+
+        return d.getOverflow().select(viewList, currentView, config.getMaxTabs(), config.getPinnedViews());
     }
 
-    private TabLabels labelsFor(View v, JobStatusCount jobCount) {
+    /**
+     * Query string naming the views that have tabs, for the tabs and more menu requests.
+     *
+     * @param views
+     *            all views in the tab bar
+     * @param shownViews
+     *            views with tabs
+     * @return query string, or an empty string if every view has a tab
+     */
+    public String getShownViewsQuery(Collection<? extends View> views, List<View> shownViews) {
+
+        if (shownViews.size() == views.size()) {
+            return "";
+        }
+
+        StringBuilder query = new StringBuilder();
 
-        TabLabels tabLabels = new TabLabels(jobCount, v.getDisplayName());
+        for (View v : shownViews) {
+            query.append((query.length() == 0) ? '?' : '&').append("view=").append(Util.rawEncode(v.getViewName()));
+        }
+
+        return query.toString();
+    }
+
+    /**
+     * Get the HTML for the view tabs, rendering it only if the tabs or anything they show has
+     * changed since the last time.
+     *
+     * @param views
+     *            views in the tab bar
+     * @param currentView
+     *            the view being shown
+     * @param rootURL
+     *            root URL for the links
+     * @param tabBarId
+     *            id of the tab bar on this page
+     * @return HTML for the tabs
+     */
+    public String getTabsHtml(Collection<? extends View> views, View currentView, String rootURL, String tabBarId) {
 
         CustomViewsTabBarDescriptor d = getDescriptor();
+        TabBarConfig config = d.getConfig();
+        TabStatusCache statusCache = d.getStatusCache();
+        boolean async = d.getAsyncCounts();
+
+        List<View> viewList = new ArrayList<View>(views);
+
+        // Plain names only change when views do, not when job status does. Otherwise the counts
+        // shown are part of the key, so builds of jobs in other views don't render the tabs again.
+        long viewsVersion = statusCache.getStructureVersion();
+        List<JobStatusCount> counts = async ? Collections.<JobStatusCount> emptyList() : getAllCounts(viewList);
+        long period = async ? 0 : d.getTrendPeriod(config);
 
-        tabLabels.setConditionActiveTab(d.getConditionActiveTab());
-        tabLabels.setConditionInactiveTab(d.getConditionInactiveTab());
+        TabBarFragmentCache.Key key = new TabBarFragmentCache.Key(config, statusCache.visibilityKey(), async,
+                viewsVersion, counts, period, rootURL, currentView, viewList);
 
-        tabLabels.setPatternActiveTab(d.getPatternActiveTab());
-        tabLabels.setPatternInactiveTab(d.getPatternInactiveTab());
+        TabBarFragment fragment = d.getFragmentCache().get(key);
 
-        tabLabels.setLabelGenerator(
-                new StringReplacementLabelGenerator(
-                        d.getNameRegexMatch(), d.getNameRegexReplacement(), d.getShortNameLength()));
+        if (fragment == null) {
 
-        return tabLabels;
+            List<TabDisplayMetaData> tabData;
+            boolean complete = true;
+
+            if (async) {
+                tabData = plainTabData(viewList, config);
+            }
+            else {
+                tabData = tabDataFor(viewList, counts, config, d);
+                // Views still being counted, or counted for an earlier configuration, will have
+                // counts next time
+                for (JobStatusCount jobCount : counts) {
+                    complete &= config.canShow(jobCount);
+                }
+            }
+
+            fragment = TabBarFragment.render(viewList, tabData, currentView, rootURL);
+
+            if (complete) {
+                d.getFragmentCache().put(key, fragment);
+            }
+        }
+
+        return fragment.toHtml(tabBarId);
+    }
+
+    /**
+     * Get tab data showing just the view names in the default colour, without counting anything.
+     * Used when the counts are filled in later by the browser.
+     *
+     * @param views
+     *            views in the tab bar
+     * @return tab data for each view
+     */
+    public List<TabDisplayMetaData> getPlainTabData(Collection<? extends View> views) {
+        return plainTabData(views, getDescriptor().getConfig());
+    }
+
+    private static List<TabDisplayMetaData> plainTabData(Collection<? extends View> views, TabBarConfig config) {
+
+        String colour = config.getDefaultColour();
+
+        List<TabDisplayMetaData> tabData = new ArrayList<TabDisplayMetaData>(views.size());
+
+        for (View v : views) {
+            tabData.add(plainTabData(v, colour));
+        }
+
+        return tabData;
     }
 
-    private String colourFor(JobStatusCount jobCount) {
-        return getDescriptor().getTabColours().getColourFor(jobCount);
+    private static TabDisplayMetaData plainTabData(View v, String colour) {
+        String name = v.getDisplayName();
+        return TabDisplayMetaData.unmodifiable(name, name, colour);
+    }
+
+    private static TabDisplayMetaData tabDataFor(View v, JobStatusCount jobCount, TabBarConfig config,
+            CustomViewsTabBarDescriptor d) {
+
+        if (!config.canShow(jobCount)) {
+            // Not counted in time, or only as far as an earlier configuration needed
+            return plainTabData(v, config.getDefaultColour());
+        }
+
+        long start = System.nanoTime();
+
+        TabDisplayMetaData tabData = d.getTabDataCache().tabDataFor(config, v, jobCount);
+
+        d.getMetrics().recordLabels(v, System.nanoTime() - start);
+
+        return tabData;
     }
 
     @Extension
     public static final class CustomViewsTabBarDescriptor extends ViewsTabBarDescriptor {
 
+        private static final Logger LOGGER = Logger.getLogger(CustomViewsTabBarDescriptor.class.getName());
+
         private String patternActiveTab = "$N1";
         private String patternInactiveTab = "$N1";
 
         private boolean conditionActiveTab = false;
         private boolean conditionInactiveTab = false;
 
+        private boolean asyncCounts = false;
+
+        private boolean liveCounts = true;
+        private int refreshInterval = 10;
+        private int maxStaleness = 60;
+
+        private int slowViewThreshold = 1000;
+
+        private int countBudget = 0;
+
+        private int historySize = 12;
+        private int historyInterval = 300;
+
+        private int maxTabs = 0;
+        private String pinnedViews = "";
+
         private int shortNameLength = 3;
         private String nameRegexMatch = "(\\w)\\w*|\\s";
         private String nameRegexReplacement = "$1";
 
         private TabColours tabColours = new TabColours();
 
+        private List<ColourRule> colourRules = new ArrayList<ColourRule>();
+
+        private transient TabMetrics metrics = new TabMetrics();
+
+        private transient JobResultIndex resultIndex = new JobResultIndex();
+
+        private transient VisibilityFingerprints fingerprints = new VisibilityFingerprints();
+
+        private transient ItemSubtotals itemSubtotals = new ItemSubtotals(fingerprints);
+
+        private transient StatusHistory statusHistory = new StatusHistory();
+
+        private transient TabStatusCache statusCache = new TabStatusCache(new ViewItemExtractor(), metrics, resultIndex,
+                itemSubtotals, fingerprints, statusHistory);
+
+        private transient TabSnapshots snapshots = new TabSnapshots(statusCache);
+
+        private transient TabTimeBudget timeBudget = new TabTimeBudget(statusCache, snapshots);
+
+        private transient TabBarFragmentCache fragmentCache = new TabBarFragmentCache();
+
+        private transient TabOverflow overflow = new TabOverflow();
+
+        private transient TabDataCache tabDataCache = new TabDataCache();
+
+        private transient volatile TabBarConfig config;
+
+        private transient AtomicLong configVersion = new AtomicLong();
+
         public CustomViewsTabBarDescriptor() {
             load();
+            compile();
         }
 
         @Override
@@ -102,6 +444,13 @@ public class CustomViewsTabBar extends ViewsTabBar {
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
 
+            try {
+                Pattern.compile(formData.getString("nameRegexMatch"));
+            }
+            catch (PatternSyntaxException e) {
+                throw new FormException("Invalid name regex match pattern: " + e.getDescription(), "nameRegexMatch");
+            }
+
             patternActiveTab = formData.getString("patternActiveTab");
             patternInactiveTab = formData.getString("patternInactiveTab");
 
@@ -112,13 +461,69 @@ public class CustomViewsTabBar extends ViewsTabBar {
             conditionActiveTab = formData.getBoolean("conditionActiveTab");
             conditionInactiveTab = formData.getBoolean("conditionInactiveTab");
 
+            historySize = Math.max(1, Math.min(StatusHistory.MAX_SIZE, formData.getInt("historySize")));
+            historyInterval = Math.max(1, formData.getInt("historyInterval"));
+
+            asyncCounts = formData.getBoolean("asyncCounts");
+
+            liveCounts = formData.getBoolean("liveCounts");
+            refreshInterval = Math.max(1, formData.getInt("refreshInterval"));
+            maxStaleness = Math.max(refreshInterval, formData.getInt("maxStaleness"));
+
+            slowViewThreshold = Math.max(0, formData.getInt("slowViewThreshold"));
+            countBudget = Math.max(0, formData.getInt("countBudget"));
+
+            maxTabs = Math.max(0, formData.getInt("maxTabs"));
+            pinnedViews = formData.getString("pinnedViews");
+
             tabColours.configure(formData);
 
+            Object rules = formData.opt("colourRules");
+            colourRules = (rules == null) ? new ArrayList<ColourRule>() : req.bindJSONToList(ColourRule.class, rules);
+
+            compile();
+
             save();
 
             return false;
         }
 
+        /**
+         * Compile the label patterns so that rendering a tab doesn't have to parse them again, let
+         * the status cache know how much counting they need, and then publish them with the rest of
+         * the settings tabs are rendered from. Everything the new settings depend on is switched
+         * over before they are published, so a render that sees them sees all of them.
+         */
+        private void compile() {
+
+            NameTransformer names;
+            try {
+                names = new NameTransformer(nameRegexMatch, nameRegexReplacement, shortNameLength);
+            }
+            catch (PatternSyntaxException e) {
+                LOGGER.log(Level.WARNING, "Invalid name regex match pattern, $N3 will show the original view name", e);
+                names = new NameTransformer(NameTransformer.MATCH_NOTHING, "", shortNameLength);
+            }
+
+            TabBarConfig next = new TabBarConfig(new TemplateLabelGenerator(patternActiveTab, patternInactiveTab,
+                    names), conditionActiveTab, conditionInactiveTab, colourRules, tabColours, maxTabs, pinnedViews);
+
+            // Only keep a history if a label shows it, before the counts are taken again
+            statusHistory.configure(next.usesTrends() ? historySize : 0, TimeUnit.SECONDS.toMillis(historyInterval));
+            statusCache.setCountMode(next.getCountMode());
+            snapshots.configure(TimeUnit.SECONDS.toMillis(refreshInterval),
+                    liveCounts ? 0 : TimeUnit.SECONDS.toMillis(maxStaleness));
+            metrics.setSlowThreshold(slowViewThreshold);
+            timeBudget.setBudget(countBudget);
+
+            config = next;
+
+            // Rendered with the old settings, which nothing looks up any more
+            fragmentCache.clear();
+            tabDataCache.clear();
+            configVersion.incrementAndGet();
+        }
+
         public String getPatternActiveTab() {
             return patternActiveTab;
         }
@@ -147,10 +552,161 @@ public class CustomViewsTabBar extends ViewsTabBar {
             return conditionInactiveTab;
         }
 
+        public int getHistorySize() {
+            return historySize;
+        }
+
+        public int getHistoryInterval() {
+            return historyInterval;
+        }
+
+        public StatusHistory getStatusHistory() {
+            return statusHistory;
+        }
+
+        /**
+         * @return a number that changes when the trends shown on the tabs may have moved on, or 0
+         *         if the tabs show none
+         */
+        public long getTrendPeriod() {
+            return getTrendPeriod(config);
+        }
+
+        /**
+         * @param config
+         *            configuration the tabs are being rendered with
+         * @return a number that changes when the trends shown on the tabs may have moved on, or 0
+         *         if the tabs show none
+         */
+        public long getTrendPeriod(TabBarConfig config) {
+            return config.usesTrends() ? statusHistory.periodAt(System.currentTimeMillis()) : 0;
+        }
+
+        public boolean getAsyncCounts() {
+            return asyncCounts;
+        }
+
+        public boolean getLiveCounts() {
+            return liveCounts;
+        }
+
+        public int getRefreshInterval() {
+            return refreshInterval;
+        }
+
+        public int getMaxStaleness() {
+            return maxStaleness;
+        }
+
+        public List<ColourRule> getColourRules() {
+            return colourRules;
+        }
+
         public TabColours getTabColours() {
             return tabColours;
         }
 
+        public TemplateLabelGenerator getLabelGenerator() {
+            return config.getLabelGenerator();
+        }
+
+        /**
+         * @return the settings tabs are rendered from, which only change all at once
+         */
+        public TabBarConfig getConfig() {
+            return config;
+        }
+
+        public TabStatusCache getStatusCache() {
+            return statusCache;
+        }
+
+        public int getSlowViewThreshold() {
+            return slowViewThreshold;
+        }
+
+        public int getCountBudget() {
+            return countBudget;
+        }
+
+        public TabTimeBudget getTimeBudget() {
+            return timeBudget;
+        }
+
+        public int getMaxTabs() {
+            return maxTabs;
+        }
+
+        public String getPinnedViews() {
+            return pinnedViews;
+        }
+
+        public TabOverflow getOverflow() {
+            return overflow;
+        }
+
+        public JobResultIndex getResultIndex() {
+            return resultIndex;
+        }
+
+        public VisibilityFingerprints getFingerprints() {
+            return fingerprints;
+        }
+
+        public ItemSubtotals getItemSubtotals() {
+            return itemSubtotals;
+        }
+
+        public TabMetrics getMetrics() {
+            return metrics;
+        }
+
+        public TabSnapshots getSnapshots() {
+            return snapshots;
+        }
+
+        public TabBarFragmentCache getFragmentCache() {
+            return fragmentCache;
+        }
+
+        public TabDataCache getTabDataCache() {
+            return tabDataCache;
+        }
+
+        /**
+         * @return a number that changes whenever the configuration is saved
+         */
+        public long getConfigVersion() {
+            return configVersion.get();
+        }
+
+        /**
+         * Check that the name regex compiles, and that it doesn't give up on the kind of names that
+         * make badly written patterns backtrack.
+         *
+         * @param value
+         *            name regex match pattern
+         * @return result of the check
+         */
+        public FormValidation doCheckNameRegexMatch(@QueryParameter String value) {
+
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(value);
+            }
+            catch (PatternSyntaxException e) {
+                return FormValidation.error("Invalid pattern: " + e.getDescription());
+            }
+
+            String slowName = NameTransformer.findSlowName(pattern);
+            if (slowName != null) {
+                return FormValidation.warning("This pattern takes too long on names like '" + slowName
+                        + "', and such names will be shown unchanged");
+            }
+
+            return FormValidation.ok();
+        }
+
         public ListBoxModel doFillTabColourDefaultItems() {
             return tabColours.doFillTabColourDefaultItems();
         }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItem;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Remembers the job status counts for items that hold jobs, such as folders, multibranch projects
+ * and matrix projects, so that a view containing one doesn't walk every job in it each time it is
+ * counted. A subtotal is dropped when any job inside the item changes, and all of them are dropped
+ * when items are created, deleted or moved.
+ * <p>
+ * Folders only list the items the user can see, so subtotals are kept per item and per user, or per
+ * {@link VisibilityFingerprints fingerprint} of the items the user can read.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class ItemSubtotals {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, JobStatusCount>> subtotals =
+            new ConcurrentHashMap<String, ConcurrentMap<String, JobStatusCount>>();
+    private final AtomicLong version = new AtomicLong();
+
+    private final VisibilityFingerprints fingerprints;
+
+    public ItemSubtotals() {
+        this(null);
+    }
+
+    /**
+     * @param fingerprints
+     *            fingerprints for sharing subtotals between users, or null to keep them per user
+     */
+    public ItemSubtotals(VisibilityFingerprints fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Get the counts for every job in the item, counting them only if there is no cached result.
+     *
+     * @param item
+     *            item holding jobs
+     * @param results
+     *            index of job status, or null to look at each job's last build
+     * @return job status counts for the item
+     */
+    JobStatusCount subtotalFor(TopLevelItem item, JobResultIndex results) {
+
+        String name = item.getFullName();
+        String visibility = visibilityKey();
+
+        ConcurrentMap<String, JobStatusCount> byUser = subtotals.get(name);
+        if (byUser == null) {
+            byUser = new ConcurrentHashMap<String, JobStatusCount>(4);
+            ConcurrentMap<String, JobStatusCount> existing = subtotals.putIfAbsent(name, byUser);
+            if (existing != null) {
+                byUser = existing;
+            }
+        }
+
+        JobStatusCount subtotal = byUser.get(visibility);
+        if (subtotal != null) {
+            return subtotal;
+        }
+
+        long before = version.get();
+
+        subtotal = JobStatusCount.countItem(item, results);
+
+        byUser.put(visibility, subtotal);
+
+        // A job changed while we were counting so the result may already be stale
+        if (version.get() != before) {
+            byUser.remove(visibility, subtotal);
+        }
+
+        return subtotal;
+    }
+
+    /**
+     * Drop the subtotals for the item and every item it belongs to.
+     *
+     * @param item
+     *            item that has changed
+     */
+    public void invalidate(Item item) {
+
+        version.incrementAndGet();
+
+        for (Item i = item; i != null; i = parentOf(i)) {
+            subtotals.remove(i.getFullName());
+        }
+    }
+
+    /**
+     * Drop all the subtotals.
+     */
+    public void invalidateAll() {
+        version.incrementAndGet();
+        subtotals.clear();
+    }
+
+    public int size() {
+        return subtotals.size();
+    }
+
+    /**
+     * Identify whose view of the jobs the subtotals are for.
+     *
+     * @return key for the current user
+     */
+    protected String visibilityKey() {
+        return (fingerprints == null) ? Jenkins.getAuthentication().getName() : fingerprints.fingerprint();
+    }
+
+    private Item parentOf(Item item) {
+
+        ItemGroup<? extends Item> parent = item.getParent();
+
+        return (parent instanceof Item) ? (Item) parent : null;
+    }
+}
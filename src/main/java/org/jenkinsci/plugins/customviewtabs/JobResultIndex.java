@@ -0,0 +1,388 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.AbstractProject;
+import hudson.model.BallColor;
+import hudson.model.Job;
+import hudson.model.PeriodicWork;
+import hudson.model.Run;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.customviewtabs.CustomViewsTabBar.CustomViewsTabBarDescriptor;
+
+/**
+ * Remembers the status colour of each job's latest build, so that counting a view doesn't have to
+ * look up the last build of every job. Builds are loaded lazily, so after a restart, or once old
+ * builds have been dropped from memory, that lookup reads the build record from disk. The colours
+ * are kept up to date as builds start, finish and are deleted, and a job is only looked up the
+ * first time it is counted.
+ * <p>
+ * Each colour is stamped with the job's next build number when it was recorded. A build that
+ * started without being recorded, for example while Jenkins was down, changes the number and the
+ * job is looked up again. The index is kept in {@code custom-view-tabs/job-status.idx} under
+ * {@code JENKINS_HOME} so that it is warm after a restart.
+ * <p>
+ * Colours found by looking up a job are found while a page is being rendered, so they are only
+ * noted there; the {@link Flusher} writes them out, and compacts the file, in the background.
+ * Building colours are never written, since a build that is running when Jenkins stops never
+ * finishes, and its colour would otherwise be replayed with a stamp that still matches.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class JobResultIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(JobResultIndex.class.getName());
+
+    static final String FILE_NAME = "custom-view-tabs/job-status.idx";
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** Jobs looked up since the last flush, whose colours are still to be written. */
+    private final Set<String> unwritten = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile JobResultStore store;
+
+    /**
+     * Get the status colour of the job, as {@link Job#getIconColor()} would give it.
+     *
+     * @param job
+     *            job
+     * @return status colour
+     */
+    @SuppressWarnings("rawtypes")
+    public BallColor colourOf(Job job) {
+
+        // Disabling a job doesn't involve a build, and checking is cheap
+        if ((job instanceof AbstractProject) && ((AbstractProject) job).isDisabled()) {
+            return BallColor.DISABLED;
+        }
+
+        String name = job.getFullName();
+        int stamp = job.getNextBuildNumber();
+
+        Entry entry = entries.get(name);
+        if ((entry != null) && (entry.stamp == stamp)) {
+            return entry.colour;
+        }
+
+        BallColor colour = job.getIconColor();
+        if (colour == null) {
+            return null;
+        }
+
+        Entry looked = new Entry(colour, stamp);
+
+        // A build that started or finished while we were looking wins
+        boolean stored = (entry == null) ? (entries.putIfAbsent(name, looked) == null)
+                : entries.replace(name, entry, looked);
+
+        if (stored && (store != null)) {
+            unwritten.add(name);
+        }
+
+        return colour;
+    }
+
+    /**
+     * Record the colour of a build that has started or finished.
+     *
+     * @param r
+     *            build
+     */
+    @SuppressWarnings("rawtypes")
+    public void record(Run r) {
+
+        Job job = r.getParent();
+        String name = job.getFullName();
+        int stamp = job.getNextBuildNumber();
+
+        BallColor colour = r.getIconColor();
+
+        if ((colour == null) || (r.getNumber() != (stamp - 1))) {
+            // Not the latest build, so it doesn't decide the job's colour
+            forgetJob(name);
+            return;
+        }
+
+        Entry entry = new Entry(colour, stamp);
+        entries.put(name, entry);
+
+        if (entry.isFinished()) {
+            persist(name, entry);
+        }
+    }
+
+    /**
+     * Forget a job if the build deleted was its latest, and so decided its colour. Deleting older
+     * builds, as a build discarder does after every build, changes nothing.
+     *
+     * @param r
+     *            build being deleted
+     * @return whether the job was forgotten
+     */
+    @SuppressWarnings("rawtypes")
+    public boolean deleted(Run r) {
+
+        Job job = r.getParent();
+
+        // Listeners hear of a deletion before the build is removed from the job
+        Run last = job.getLastBuild();
+        if ((last != null) && (r.getNumber() < last.getNumber())) {
+            return false;
+        }
+
+        forgetJob(job.getFullName());
+
+        return true;
+    }
+
+    /**
+     * Forget a job, so that it is looked up again next time.
+     *
+     * @param fullName
+     *            full name of the job
+     */
+    public void forgetJob(String fullName) {
+
+        if (entries.remove(fullName) != null) {
+            persist(fullName, null);
+        }
+    }
+
+    /**
+     * Forget a job, or every job in a folder, so that it is looked up again next time. Every job
+     * is looked at, so this is for items that are deleted or moved, not for builds.
+     *
+     * @param fullName
+     *            full name of the job or folder
+     */
+    public void forget(String fullName) {
+
+        forgetJob(fullName);
+
+        String prefix = fullName + "/";
+        for (Iterator<String> names = entries.keySet().iterator(); names.hasNext();) {
+
+            String name = names.next();
+
+            if (name.startsWith(prefix)) {
+                names.remove();
+                persist(name, null);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Load the index from the store, and keep the store up to date from now on. The store is
+     * compacted straight away, which also rebuilds it if it was damaged.
+     *
+     * @param store
+     *            where the index is kept
+     */
+    void open(JobResultStore store) {
+
+        for (Map.Entry<String, Entry> loaded : store.load().entrySet()) {
+            // Anything recorded since Jenkins started is newer, and a build still running when
+            // Jenkins stopped will never finish
+            if (loaded.getValue().isFinished()) {
+                entries.putIfAbsent(loaded.getKey(), loaded.getValue());
+            }
+        }
+
+        try {
+            store.rewrite(finishedEntries());
+            this.store = store;
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write job status index, it will not be kept over a restart", e);
+        }
+    }
+
+    /**
+     * Write out the colours of jobs looked up since the last flush, compacting the store if it
+     * holds too many replaced records.
+     */
+    void flush() {
+
+        JobResultStore s = store;
+        if (s == null) {
+            return;
+        }
+
+        try {
+            for (Iterator<String> names = unwritten.iterator(); names.hasNext();) {
+
+                String name = names.next();
+                names.remove();
+
+                // Forgotten since, in which case that has been written already
+                Entry entry = entries.get(name);
+                if ((entry != null) && entry.isFinished()) {
+                    s.append(name, entry, false);
+                }
+            }
+
+            if (s.needsCompaction(entries.size())) {
+                s.rewrite(finishedEntries());
+            }
+
+            s.flush();
+        }
+        catch (IOException e) {
+            failed(s, e);
+        }
+    }
+
+    void close() {
+
+        JobResultStore s = store;
+        if (s != null) {
+            store = null;
+            s.close();
+        }
+    }
+
+    private Map<String, Entry> finishedEntries() {
+
+        Map<String, Entry> finished = new HashMap<String, Entry>();
+
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().isFinished()) {
+                finished.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return finished;
+    }
+
+    private void persist(String name, Entry entry) {
+
+        JobResultStore s = store;
+        if (s == null) {
+            return;
+        }
+
+        try {
+            s.append(name, entry, true);
+        }
+        catch (IOException e) {
+            failed(s, e);
+        }
+    }
+
+    private void failed(JobResultStore s, IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to write job status index, it will not be kept over a restart", e);
+        store = null;
+        s.close();
+    }
+
+    /**
+     * A job's status colour and its next build number at the time.
+     */
+    static final class Entry {
+
+        final BallColor colour;
+        final int stamp;
+
+        Entry(BallColor colour, int stamp) {
+            this.colour = colour;
+            this.stamp = stamp;
+        }
+
+        /**
+         * @return whether the colour is of a finished build, rather than one still building
+         */
+        boolean isFinished() {
+            return !colour.isAnimated();
+        }
+    }
+
+    private static JobResultIndex instance() {
+
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return null;
+        }
+
+        CustomViewsTabBarDescriptor d = jenkins.getDescriptorByType(CustomViewsTabBarDescriptor.class);
+
+        return (d == null) ? null : d.getResultIndex();
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void load() {
+
+        JobResultIndex index = instance();
+        if (index != null) {
+            index.open(new JobResultStore(new File(Jenkins.getInstance().getRootDir(), FILE_NAME)));
+        }
+    }
+
+    @Terminator
+    public static void shutdown() {
+
+        JobResultIndex index = instance();
+        if (index != null) {
+            index.flush();
+            index.close();
+        }
+    }
+
+    /**
+     * Writes out the colours found by looking up jobs, which aren't written while rendering, and
+     * compacts the index.
+     */
+    @Extension
+    public static class Flusher extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.SECONDS.toMillis(10);
+        }
+
+        @Override
+        protected void doRun() {
+
+            JobResultIndex index = instance();
+            if (index != null) {
+                index.flush();
+            }
+        }
+    }
+}
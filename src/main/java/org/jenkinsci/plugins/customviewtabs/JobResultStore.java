@@ -0,0 +1,304 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.BallColor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.jenkinsci.plugins.customviewtabs.JobResultIndex.Entry;
+
+/**
+ * Keeps the {@link JobResultIndex} in a file, so that the counts are warm after a restart. Changes
+ * are appended to the end of the file as they happen, each record with its own checksum. Reading
+ * the file replays the records in order. When the file holds too many records that have been
+ * replaced, it is compacted by writing the current entries to a new file.
+ * <p>
+ * A record that fails its checksum, or is cut short, ends the replay. Everything read up to that
+ * point is kept and the file is rewritten from it.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+final class JobResultStore {
+
+    private static final Logger LOGGER = Logger.getLogger(JobResultStore.class.getName());
+
+    static final int MAGIC = 0x43565449;
+    static final int FORMAT = 1;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    /** Colours by their code in the file. Only ever add to the end. */
+    private static final BallColor[] COLOURS = { BallColor.RED, BallColor.RED_ANIME, BallColor.YELLOW,
+            BallColor.YELLOW_ANIME, BallColor.BLUE, BallColor.BLUE_ANIME, BallColor.GREY, BallColor.GREY_ANIME,
+            BallColor.DISABLED, BallColor.DISABLED_ANIME, BallColor.ABORTED, BallColor.ABORTED_ANIME,
+            BallColor.NOTBUILT, BallColor.NOTBUILT_ANIME };
+
+    private final File file;
+
+    private DataOutputStream out;
+    private int records;
+
+    private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(64);
+    private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+    private final CRC32 crc = new CRC32();
+
+    JobResultStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the entries from the file.
+     *
+     * @return entries by job full name
+     */
+    synchronized Map<String, Entry> load() {
+
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+
+        if (!file.exists()) {
+            return entries;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT)) {
+                LOGGER.warning("Ignoring unrecognised job status index " + file);
+                return entries;
+            }
+
+            while (readRecord(in, entries)) {
+                records++;
+            }
+        }
+        catch (EOFException e) {
+            LOGGER.warning("Job status index " + file + " is cut short, rebuilding it from " + entries.size()
+                    + " jobs read");
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read job status index " + file + ", rebuilding it from "
+                    + entries.size() + " jobs read", e);
+        }
+        finally {
+            closeQuietly(in);
+        }
+
+        return entries;
+    }
+
+    private boolean readRecord(DataInputStream in, Map<String, Entry> entries) throws IOException {
+
+        int length = in.read();
+        if (length < 0) {
+            return false;
+        }
+        length = (length << 8) | in.readUnsignedByte();
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        crc.reset();
+        crc.update(bytes, 0, length);
+
+        if (in.readInt() != (int) crc.getValue()) {
+            throw new IOException("Checksum mismatch after " + records + " records");
+        }
+
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        byte op = record.readByte();
+        String name = record.readUTF();
+
+        if (op == REMOVE) {
+            entries.remove(name);
+        }
+        else if (op == PUT) {
+            int stamp = record.readInt();
+            int colour = record.readUnsignedByte();
+            if (colour < COLOURS.length) {
+                entries.put(name, new Entry(COLOURS[colour], stamp));
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Replace the file with one holding just the current entries. Holds the lock while copying the
+     * entries, so no change can be appended to the old file after the copy is taken.
+     *
+     * @param entries
+     *            current entries
+     * @throws IOException
+     *             if the file can't be written
+     */
+    synchronized void rewrite(Map<String, Entry> entries) throws IOException {
+
+        closeQuietly(out);
+        out = null;
+
+        File parent = file.getParentFile();
+        if ((parent != null) && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+
+        DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            tmpOut.writeInt(MAGIC);
+            tmpOut.writeInt(FORMAT);
+
+            records = 0;
+            for (Map.Entry<String, Entry> entry : new HashMap<String, Entry>(entries).entrySet()) {
+                writeRecord(tmpOut, entry.getKey(), entry.getValue());
+            }
+        }
+        finally {
+            tmpOut.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            // Windows won't rename over an existing file
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
+        }
+
+        out = openForAppend();
+    }
+
+    /**
+     * Append a change.
+     *
+     * @param name
+     *            job full name
+     * @param entry
+     *            new entry, or null if the job was forgotten
+     * @param flush
+     *            whether to write it out now, rather than with the next flush
+     * @throws IOException
+     *             if the file can't be written
+     */
+    synchronized void append(String name, Entry entry, boolean flush) throws IOException {
+
+        if (out == null) {
+            out = openForAppend();
+        }
+
+        writeRecord(out, name, entry);
+
+        if (flush) {
+            out.flush();
+        }
+    }
+
+    /**
+     * @param liveEntries
+     *            number of entries in the index
+     * @return whether the file holds enough replaced records to be worth rewriting
+     */
+    synchronized boolean needsCompaction(int liveEntries) {
+        return records > ((2 * liveEntries) + 1024);
+    }
+
+    synchronized void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    synchronized void close() {
+        closeQuietly(out);
+        out = null;
+    }
+
+    private DataOutputStream openForAppend() throws FileNotFoundException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private void writeRecord(DataOutputStream to, String name, Entry entry) throws IOException {
+
+        payloadBytes.reset();
+
+        if (entry == null) {
+            payload.writeByte(REMOVE);
+            payload.writeUTF(name);
+        }
+        else {
+            payload.writeByte(PUT);
+            payload.writeUTF(name);
+            payload.writeInt(entry.stamp);
+            payload.writeByte(codeOf(entry.colour));
+        }
+
+        byte[] bytes = payloadBytes.toByteArray();
+
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+
+        to.writeShort(bytes.length);
+        to.write(bytes);
+        to.writeInt((int) crc.getValue());
+
+        records++;
+    }
+
+    private static int codeOf(BallColor colour) {
+
+        for (int i = 0; i < COLOURS.length; i++) {
+            if (COLOURS[i] == colour) {
+                return i;
+            }
+        }
+
+        return COLOURS.length;
+    }
+
+    private static void closeQuietly(Closeable c) {
+
+        if (c == null) {
+            return;
+        }
+
+        try {
+            c.close();
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close job status index", e);
+        }
+    }
+}
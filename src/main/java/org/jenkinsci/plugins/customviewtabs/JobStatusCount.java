@@ -15,11 +15,17 @@
  */
 package org.jenkinsci.plugins.customviewtabs;
 
+import hudson.model.BallColor;
+import hudson.model.ItemGroup;
 import hudson.model.TopLevelItem;
 import hudson.model.Job;
+import hudson.model.View;
 
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
+
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.CountMode;
+import org.jenkinsci.plugins.customviewtabs.ViewItemExtractor.ItemVisitor;
 
 /**
  * Sums jobs according to build status as indicated by the iconColour. This is very crude. There
@@ -30,42 +36,316 @@ import java.util.Iterator;
  */
 public class JobStatusCount {
 
+    /** Counts for an item holding one job, by its status, which are shared and never changed. */
+    private static final JobStatusCount[] ONE_JOB = { oneJob(0, 0, 0, 0), oneJob(1, 0, 0, 0),
+            oneJob(0, 1, 0, 0), oneJob(0, 0, 1, 0), oneJob(0, 0, 0, 1) };
+
     private int total = 0;
     private int failed = 0;
     private int disabled = 0;
     private int unstable = 0;
     private int successful = 0;
 
-    @SuppressWarnings("rawtypes")
+    private long extractNanos = 0;
+
+    /** How far the jobs were counted. */
+    private CountMode countMode = CountMode.FULL;
+
+    private final JobResultIndex results;
+    private final ItemSubtotals subtotals;
+
+    /** Recent counts for the view, kept for the trend tokens. */
+    private StatusHistory.Series history;
+
     public JobStatusCount(Collection<TopLevelItem> items) {
 
+        results = null;
+        subtotals = null;
+
         if (items == null) {
             return;
         }
 
-        total = items.size();
-
         for (TopLevelItem item : items) {
+            count(item);
+        }
+    }
+
+    /**
+     * Count the items in the view as they are extracted, without collecting them first.
+     * 
+     * @param v
+     *            view to count
+     * @param extractor
+     *            extractor for the items in the view
+     * @param stopAtFirstFailure
+     *            stop counting as soon as a failed job is found, which is all the tab colour needs
+     *            to know. The counts are then incomplete.
+     */
+    public JobStatusCount(View v, ViewItemExtractor extractor, boolean stopAtFirstFailure) {
+        this(v, extractor, stopAtFirstFailure, null);
+    }
+
+    /**
+     * Count the items in the view as they are extracted, taking each job's status from an index
+     * rather than its last build.
+     * 
+     * @param v
+     *            view to count
+     * @param extractor
+     *            extractor for the items in the view
+     * @param stopAtFirstFailure
+     *            stop counting as soon as a failed job is found
+     * @param results
+     *            index of job status, or null to look at each job's last build
+     */
+    public JobStatusCount(View v, ViewItemExtractor extractor, boolean stopAtFirstFailure,
+            JobResultIndex results) {
+        this(v, extractor, stopAtFirstFailure, results, null);
+    }
+
+    /**
+     * Count the items in the view as they are extracted, taking each job's status from an index
+     * and the totals for folders and other items holding several jobs from a cache.
+     * 
+     * @param v
+     *            view to count
+     * @param extractor
+     *            extractor for the items in the view
+     * @param stopAtFirstFailure
+     *            stop counting as soon as a failed job is found
+     * @param results
+     *            index of job status, or null to look at each job's last build
+     * @param subtotals
+     *            cached totals for items holding jobs, or null to count their jobs every time
+     */
+    public JobStatusCount(View v, ViewItemExtractor extractor, final boolean stopAtFirstFailure,
+            JobResultIndex results, ItemSubtotals subtotals) {
+
+        this.results = results;
+        this.subtotals = subtotals;
+
+        if (stopAtFirstFailure) {
+            countMode = CountMode.UNTIL_FAILURE;
+        }
 
-            Collection<? extends Job> allJobs = item.getAllJobs();
-            if ((allJobs == null) || allJobs.isEmpty()) {
-                continue;
+        extractNanos = extractor.visitItemsInView(v, new ItemVisitor() {
+            public boolean visit(TopLevelItem item) {
+                count(item);
+                return !(stopAtFirstFailure && hasFailures());
             }
+        });
+    }
+
+    /**
+     * Count items that have already been extracted from a view.
+     * 
+     * @param items
+     *            items to count
+     * @param results
+     *            index of job status, or null to look at each job's last build
+     * @param subtotals
+     *            cached totals for items holding jobs, or null to count their jobs every time
+     * @param extractNanos
+     *            nanoseconds spent extracting the items
+     */
+    JobStatusCount(Collection<TopLevelItem> items, JobResultIndex results, ItemSubtotals subtotals,
+            long extractNanos) {
 
-            Iterator<? extends Job> iterator = allJobs.iterator();
+        this.results = results;
+        this.subtotals = subtotals;
+        this.extractNanos = extractNanos;
 
-            if (iterator.hasNext()) {
-                countJobStatus(iterator.next());
-                // TODO I must be missing something here. When does a TopLevelItem have more than
-                // one Job?
+        for (TopLevelItem item : items) {
+            count(item);
+        }
+    }
+
+    /**
+     * Count the items, keeping what each one added, so that an item counted again elsewhere can be
+     * taken out just as it was counted here.
+     *
+     * @param items
+     *            items to count
+     * @param results
+     *            index of job status, or null to look at each job's last build
+     * @param subtotals
+     *            cached totals for items holding jobs, or null to count their jobs every time
+     * @param extractNanos
+     *            nanoseconds spent extracting the items
+     * @param contributions
+     *            filled with what each item added, in the same order as the items
+     */
+    JobStatusCount(List<TopLevelItem> items, JobResultIndex results, ItemSubtotals subtotals, long extractNanos,
+            JobStatusCount[] contributions) {
+
+        this.results = results;
+        this.subtotals = subtotals;
+        this.extractNanos = extractNanos;
+
+        for (int i = 0; i < contributions.length; i++) {
+            contributions[i] = shared(countItem(items.get(i), results, subtotals));
+            add(contributions[i]);
+        }
+    }
+
+    private JobStatusCount(TopLevelItem item, JobResultIndex results) {
+
+        this.results = results;
+        this.subtotals = null;
+
+        countJobs(item);
+    }
+
+    /**
+     * Count every job in an item, such as the jobs in a folder or the configurations of a matrix
+     * project.
+     * 
+     * @param item
+     *            item to count
+     * @param results
+     *            index of job status, or null to look at each job's last build
+     * @return job status counts for the item
+     */
+    static JobStatusCount countItem(TopLevelItem item, JobResultIndex results) {
+        return new JobStatusCount(item, results);
+    }
+
+    /**
+     * Count every job in an item, using the cached subtotal for items holding several jobs.
+     * 
+     * @param item
+     *            item to count
+     * @param results
+     *            index of job status, or null to look at each job's last build
+     * @param subtotals
+     *            cached totals for items holding jobs, or null to count their jobs every time
+     * @return job status counts for the item
+     */
+    static JobStatusCount countItem(TopLevelItem item, JobResultIndex results, ItemSubtotals subtotals) {
+
+        if ((subtotals != null) && (item instanceof ItemGroup)) {
+            return subtotals.subtotalFor(item, results);
+        }
+
+        return countItem(item, results);
+    }
+
+    private void count(TopLevelItem item) {
+
+        if ((subtotals != null) && (item instanceof ItemGroup)) {
+            add(subtotals.subtotalFor(item, results));
+        }
+        else {
+            countJobs(item);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void countJobs(TopLevelItem item) {
+
+        int jobs = 0;
+
+        Collection<? extends Job> allJobs = item.getAllJobs();
+        if (allJobs != null) {
+            for (Job job : allJobs) {
+
+                // A matrix project sums up its configurations, which are counted themselves
+                if (hasChildJobs(job)) {
+                    continue;
+                }
+
+                jobs++;
+                countJobStatus(job);
             }
         }
+
+        // An item with no jobs, such as an empty folder, still counts once as it always has
+        total += Math.max(1, jobs);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static boolean hasChildJobs(Job job) {
+
+        if (!(job instanceof ItemGroup)) {
+            return false;
+        }
+
+        Collection children = ((ItemGroup) job).getItems();
+
+        return (children != null) && !children.isEmpty();
+    }
+
+    /**
+     * Swap the count for an item holding a single job for one shared by every such item, so that
+     * keeping what each item added takes no more than a reference for most items.
+     */
+    private static JobStatusCount shared(JobStatusCount count) {
+
+        if (count.total != 1) {
+            return count;
+        }
+
+        if (count.failed == 1) {
+            return ONE_JOB[1];
+        }
+        if (count.disabled == 1) {
+            return ONE_JOB[2];
+        }
+        if (count.unstable == 1) {
+            return ONE_JOB[3];
+        }
+        if (count.successful == 1) {
+            return ONE_JOB[4];
+        }
+
+        return ONE_JOB[0];
+    }
+
+    private static JobStatusCount oneJob(int failed, int disabled, int unstable, int successful) {
+
+        JobStatusCount count = new JobStatusCount(null);
+        count.total = 1;
+        count.failed = failed;
+        count.disabled = disabled;
+        count.unstable = unstable;
+        count.successful = successful;
+
+        return count;
+    }
+
+    /**
+     * Add another count to this one. Only for counts that haven't been handed out yet.
+     */
+    void add(JobStatusCount other) {
+        total += other.total;
+        failed += other.failed;
+        disabled += other.disabled;
+        unstable += other.unstable;
+        successful += other.successful;
+    }
+
+    /**
+     * Take away a count that was added twice. Only for counts that haven't been handed out yet.
+     */
+    void subtract(JobStatusCount other) {
+        total -= other.total;
+        failed -= other.failed;
+        disabled -= other.disabled;
+        unstable -= other.unstable;
+        successful -= other.successful;
     }
 
     @SuppressWarnings("rawtypes")
     private void countJobStatus(Job j) {
 
-        switch (j.getIconColor()) {
+        BallColor colour = (results == null) ? j.getIconColor() : results.colourOf(j);
+
+        if (colour == null) {
+            return;
+        }
+
+        switch (colour) {
 
             case BLUE:
                 successful++;
@@ -85,6 +365,46 @@ public class JobStatusCount {
         }
     }
 
+    /**
+     * @return nanoseconds spent asking the views for their items while counting
+     */
+    long extractNanos() {
+        return extractNanos;
+    }
+
+    /**
+     * @return how far the jobs were counted, so that counts taken for a configuration that needed
+     *         less aren't shown by one that needs more
+     */
+    public CountMode countMode() {
+        return countMode;
+    }
+
+    /**
+     * Record that the jobs were only counted so far. Only for counts that haven't been handed out
+     * yet.
+     */
+    void countedAs(CountMode countMode) {
+        this.countMode = countMode;
+    }
+
+    /**
+     * Attach the history the counts were added to. Only for counts that haven't been handed out yet.
+     */
+    void setHistory(StatusHistory.Series history) {
+        this.history = history;
+    }
+
+    /**
+     * @return how the view's counts have changed over its history, or no change if none is kept
+     */
+    public StatusHistory.Trend trend() {
+
+        StatusHistory.Series h = history;
+
+        return (h == null) ? StatusHistory.Trend.NONE : h.trend(System.currentTimeMillis());
+    }
+
     public boolean allOk() {
         return !(hasFailures() || hasDisabled() || hasUnstable());
     }
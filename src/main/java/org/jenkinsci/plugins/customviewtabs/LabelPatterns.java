@@ -32,4 +32,6 @@ public abstract class LabelPatterns {
     public static final String DISABLED = Pattern.quote("$D");
     public static final String UNSTABLE = Pattern.quote("$U");
     public static final String SUCCESSFUL = Pattern.quote("$S");
+    public static final String FAILED_CHANGE = Pattern.quote("$dF");
+    public static final String PASS_RATE_CHANGE = Pattern.quote("$dP");
 }
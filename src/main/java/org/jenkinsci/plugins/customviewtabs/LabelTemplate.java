@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A label pattern split into literal text and tokens once, so that a label can be rendered in a
+ * single pass instead of a regex replacement per token.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public final class LabelTemplate {
+
+    /**
+     * The special identifiers that may appear in a label pattern.
+     */
+    public enum Token {
+
+        NAME("$N1"),
+        SHORTNAME("$N2"),
+        REGEXNAME("$N3"),
+        TOTAL("$T"),
+        FAILED("$F"),
+        DISABLED("$D"),
+        UNSTABLE("$U"),
+        SUCCESSFUL("$S"),
+        FAILED_CHANGE("$dF"),
+        PASS_RATE_CHANGE("$dP");
+
+        private final String text;
+
+        private Token(String text) {
+            this.text = text;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public boolean isCount() {
+            return ordinal() >= TOTAL.ordinal();
+        }
+
+        public boolean isTrend() {
+            return ordinal() >= FAILED_CHANGE.ordinal();
+        }
+    }
+
+    private static final Token[] TOKENS = Token.values();
+
+    private final String pattern;
+
+    /** Literal text, or null where the part is a token. */
+    private final String[] literals;
+    private final Token[] tokens;
+
+    private final boolean usesShortName;
+    private final boolean usesRegexName;
+    private final boolean usesCounts;
+    private final boolean usesTrends;
+
+    private LabelTemplate(String pattern, List<String> literals, List<Token> tokens) {
+
+        this.pattern = pattern;
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.tokens = tokens.toArray(new Token[tokens.size()]);
+
+        usesShortName = tokens.contains(Token.SHORTNAME);
+        usesRegexName = tokens.contains(Token.REGEXNAME);
+
+        boolean counts = false;
+        boolean trends = false;
+        for (Token token : tokens) {
+            if ((token != null) && token.isCount()) {
+                counts = true;
+                trends |= token.isTrend();
+            }
+        }
+        usesCounts = counts;
+        usesTrends = trends;
+    }
+
+    /**
+     * Split the pattern into literal text and tokens.
+     *
+     * @param pattern
+     *            label pattern
+     * @return compiled template
+     */
+    public static LabelTemplate compile(String pattern) {
+
+        List<String> literals = new ArrayList<String>();
+        List<Token> tokens = new ArrayList<Token>();
+
+        int start = 0;
+        int i = pattern.indexOf('$');
+
+        while (i >= 0) {
+
+            Token token = tokenAt(pattern, i);
+
+            if (token == null) {
+                i = pattern.indexOf('$', i + 1);
+                continue;
+            }
+
+            if (i > start) {
+                literals.add(pattern.substring(start, i));
+                tokens.add(null);
+            }
+
+            literals.add(null);
+            tokens.add(token);
+
+            start = i + token.getText().length();
+            i = pattern.indexOf('$', start);
+        }
+
+        if (start < pattern.length()) {
+            literals.add(pattern.substring(start));
+            tokens.add(null);
+        }
+
+        return new LabelTemplate(pattern, literals, tokens);
+    }
+
+    private static Token tokenAt(String pattern, int i) {
+
+        for (Token token : TOKENS) {
+            if (pattern.startsWith(token.getText(), i)) {
+                return token;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Append the label to the builder.
+     *
+     * @param label
+     *            builder to append to
+     * @param displayName
+     *            original view display name
+     * @param shortName
+     *            shortened view name, only needed if {@link #usesShortName()}
+     * @param regexName
+     *            regex processed view name, only needed if {@link #usesRegexName()}
+     * @param jobCount
+     *            job status count data for the view, only needed if {@link #usesCounts()}
+     */
+    public void render(StringBuilder label, String displayName, String shortName, String regexName,
+            JobStatusCount jobCount) {
+
+        StatusHistory.Trend trend = usesTrends ? jobCount.trend() : null;
+
+        for (int i = 0; i < tokens.length; i++) {
+
+            Token token = tokens[i];
+
+            if (token == null) {
+                label.append(literals[i]);
+                continue;
+            }
+
+            switch (token) {
+
+                case NAME:
+                    label.append(displayName);
+                    break;
+                case SHORTNAME:
+                    label.append(shortName);
+                    break;
+                case REGEXNAME:
+                    label.append(regexName);
+                    break;
+                case TOTAL:
+                    label.append(jobCount.total());
+                    break;
+                case FAILED:
+                    label.append(jobCount.failed());
+                    break;
+                case DISABLED:
+                    label.append(jobCount.disabled());
+                    break;
+                case UNSTABLE:
+                    label.append(jobCount.unstable());
+                    break;
+                case SUCCESSFUL:
+                    label.append(jobCount.successful());
+                    break;
+                case FAILED_CHANGE:
+                    StatusHistory.Trend.appendChange(label, trend.getFailedChange());
+                    break;
+                case PASS_RATE_CHANGE:
+                    StatusHistory.Trend.appendChange(label, trend.getPassRateChange());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public boolean usesShortName() {
+        return usesShortName;
+    }
+
+    public boolean usesRegexName() {
+        return usesRegexName;
+    }
+
+    public boolean usesCounts() {
+        return usesCounts;
+    }
+
+    /**
+     * @return whether the label shows how the counts have changed, and so can change over time
+     *         without the counts changing
+     */
+    public boolean usesTrends() {
+        return usesTrends;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * The $N2 and $N3 view name transforms, with the name regex compiled once and the results
+ * remembered per display name. View names hardly ever change, so almost every tab is a lookup.
+ * <p>
+ * A new transformer is created whenever the configuration changes. Results are keyed by display
+ * name, so a renamed view simply misses and its old entry is eventually evicted.
+ * <p>
+ * The name regex is run under a limit on how many characters it may look at, so a pattern that
+ * backtracks catastrophically gives up quickly and leaves the name as it was instead of tying up
+ * the request thread.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class NameTransformer {
+
+    private static final Logger LOGGER = Logger.getLogger(NameTransformer.class.getName());
+
+    static final int MAX_NAMES = 1024;
+
+    /** Most characters the name regex may look at for one name before it gives up. */
+    static final int MAX_STEPS = 100000;
+
+    /**
+     * Names of the kind that make a badly written pattern backtrack, a long run of characters that
+     * nearly match with something at the end that doesn't.
+     */
+    private static final String[] PROBES = {
+        repeat("a", 40) + "!",
+        repeat("ab", 20) + "!",
+        repeat("1", 40) + "!",
+        repeat("a ", 20) + "!",
+        repeat("a-", 20) + "!",
+        "Some View With Quite A Long Name Made Of Many Words!"
+    };
+
+    /** A name regex that never matches, leaving $N3 as the original view name. */
+    static final String MATCH_NOTHING = "(?!)";
+
+    private final Pattern nameRegexMatch;
+    private final String nameRegexReplacement;
+    private final int shortNameLength;
+
+    private final Map<String, Names> names = new LinkedHashMap<String, Names>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Names> eldest) {
+            return size() > MAX_NAMES;
+        }
+    };
+
+    public NameTransformer(String nameRegexMatch, String nameRegexReplacement, int shortNameLength) {
+        this.nameRegexMatch = Pattern.compile(nameRegexMatch);
+        this.nameRegexReplacement = nameRegexReplacement;
+        this.shortNameLength = shortNameLength;
+    }
+
+    /**
+     * The view name truncated according to the short name length setting.
+     *
+     * @param displayName
+     *            original view display name
+     * @return short name
+     */
+    public String shortName(String displayName) {
+
+        Names n = namesFor(displayName);
+
+        if (n.shortName == null) {
+            n.shortName = shorten(displayName);
+        }
+
+        return n.shortName;
+    }
+
+    /**
+     * The view name processed with replaceAll(regexMatch, regexReplacement).
+     *
+     * @param displayName
+     *            original view display name
+     * @return regex processed name
+     */
+    public String regexName(String displayName) {
+
+        Names n = namesFor(displayName);
+
+        if (n.regexName == null) {
+            n.regexName = replace(displayName);
+        }
+
+        return n.regexName;
+    }
+
+    private String replace(String displayName) {
+
+        try {
+            return nameRegexMatch.matcher(new BoundedCharSequence(displayName, MAX_STEPS)).replaceAll(
+                    nameRegexReplacement);
+        }
+        catch (StepLimitExceeded e) {
+            LOGGER.warning("Name regex match pattern took too long on view name " + displayName
+                    + ", $N3 will show the original view name");
+            return displayName;
+        }
+        catch (RuntimeException e) {
+            // Such as the replacement referring to a group the pattern doesn't have
+            LOGGER.log(Level.WARNING, "Name regex replacement failed on view name " + displayName
+                    + ", $N3 will show the original view name", e);
+            return displayName;
+        }
+    }
+
+    /**
+     * Try a pattern on the kind of names that make a badly written one backtrack.
+     *
+     * @param pattern
+     *            compiled name regex
+     * @return a name the pattern gives up on, or null if it copes with all of them
+     */
+    static String findSlowName(Pattern pattern) {
+
+        for (String probe : PROBES) {
+            try {
+                pattern.matcher(new BoundedCharSequence(probe, MAX_STEPS)).find();
+            }
+            catch (StepLimitExceeded e) {
+                return probe;
+            }
+        }
+
+        return null;
+    }
+
+    private static String repeat(String s, int times) {
+
+        StringBuilder repeated = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            repeated.append(s);
+        }
+
+        return repeated.toString();
+    }
+
+    int size() {
+        synchronized (names) {
+            return names.size();
+        }
+    }
+
+    private Names namesFor(String displayName) {
+
+        synchronized (names) {
+
+            Names n = names.get(displayName);
+
+            if (n == null) {
+                n = new Names();
+                names.put(displayName, n);
+            }
+
+            return n;
+        }
+    }
+
+    private String shorten(String displayName) {
+
+        if (displayName.length() > shortNameLength) {
+            return displayName.substring(0, shortNameLength) + ".";
+        }
+        else {
+            return displayName;
+        }
+    }
+
+    /**
+     * A name that counts the characters the regex looks at, and stops the match when there have
+     * been too many. Every step of a match, backtracking included, reads a character.
+     */
+    private static final class BoundedCharSequence implements CharSequence {
+
+        private final String text;
+        private final int maxSteps;
+        private int steps;
+
+        BoundedCharSequence(String text, int maxSteps) {
+            this.text = text;
+            this.maxSteps = maxSteps;
+        }
+
+        public char charAt(int index) {
+
+            if (++steps > maxSteps) {
+                throw new StepLimitExceeded();
+            }
+
+            return text.charAt(index);
+        }
+
+        public int length() {
+            return text.length();
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static final class StepLimitExceeded extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // Thrown to give up on a match, not to report anything
+            return this;
+        }
+    }
+
+    /**
+     * Transformed names are filled in when first asked for. Strings are immutable, so a race only
+     * means working the same name out twice.
+     */
+    private static final class Names {
+        private volatile String shortName;
+        private volatile String regexName;
+    }
+}
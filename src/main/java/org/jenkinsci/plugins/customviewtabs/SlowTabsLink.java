@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import hudson.model.View;
+
+import java.util.Collections;
+import java.util.List;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.customviewtabs.CustomViewsTabBar.CustomViewsTabBarDescriptor;
+import org.jenkinsci.plugins.customviewtabs.TabMetrics.ViewMetrics;
+
+/**
+ * Lists the views whose tabs take longest to count, on the Manage Jenkins page.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+@Extension
+public class SlowTabsLink extends ManagementLink {
+
+    /** Number of views listed. */
+    static final int LIMIT = 50;
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    public String getDisplayName() {
+        return "Slow View Tabs";
+    }
+
+    @Override
+    public String getDescription() {
+        return "The views whose tabs take longest to count, for tracking down slow pages.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "slowViewTabs";
+    }
+
+    public List<ViewMetrics> getSlowest() {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+
+        return (d == null) ? Collections.<ViewMetrics> emptyList() : d.getMetrics().getSlowest(LIMIT);
+    }
+
+    /**
+     * @param metrics
+     *            metrics for a view
+     * @return whether the view is too slow to wait for and is only counted in the background
+     */
+    public boolean isTripped(ViewMetrics metrics) {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        View v = metrics.getView();
+
+        return (d != null) && (v != null) && d.getTimeBudget().isTripped(v);
+    }
+
+    private static CustomViewsTabBarDescriptor descriptor() {
+        return Jenkins.getInstance().getDescriptorByType(CustomViewsTabBarDescriptor.class);
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.Key;
+
+/**
+ * Keeps the recent job status counts of each view, so that labels can show how they have changed.
+ * A view's counts are sampled whenever it is counted, keeping the last count in each sampling
+ * interval, in a fixed size ring of ints that is allocated once and never grows.
+ * <p>
+ * The trend over the history is worked out at most once per interval and kept with the samples, so
+ * a label showing it reads two numbers rather than looking through the history. The histories
+ * together are kept under {@link #MAX_BYTES}, dropping those of the views that were counted least
+ * recently when there are too many.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class StatusHistory {
+
+    /** Most memory all the histories together may take, roughly. */
+    static final long MAX_BYTES = Long.getLong(StatusHistory.class.getName() + ".maxBytes", 4L * 1024 * 1024);
+
+    /** Most samples that may be kept for each view. */
+    public static final int MAX_SIZE = 1440;
+
+    /** Counts kept for each sample. */
+    private static final int FIELDS = 3;
+    private static final int TOTAL = 0;
+    private static final int FAILED = 1;
+    private static final int SUCCESSFUL = 2;
+
+    /** Bytes for each sample, its interval and counts. */
+    private static final int SAMPLE_BYTES = 8 + (4 * FIELDS);
+
+    /** Bytes for each history besides its samples, the object, its arrays and its map entry. */
+    private static final int SERIES_BYTES = 160;
+
+    private final Map<Key, Series> histories = new LinkedHashMap<Key, Series>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Series> eldest) {
+            return size() > maxSeries;
+        }
+    };
+
+    private int size = 0;
+    private long intervalMillis = 1;
+    private int maxSeries = 0;
+
+    /**
+     * Set how much history to keep, dropping what is kept if that changes.
+     *
+     * @param size
+     *            samples to keep for each view, or 0 to keep none
+     * @param intervalMillis
+     *            milliseconds each sample covers
+     */
+    public void configure(int size, long intervalMillis) {
+
+        size = Math.max(0, Math.min(MAX_SIZE, size));
+        intervalMillis = Math.max(1, intervalMillis);
+
+        synchronized (histories) {
+
+            if ((size == this.size) && (intervalMillis == this.intervalMillis)) {
+                return;
+            }
+
+            this.size = size;
+            this.intervalMillis = intervalMillis;
+            maxSeries = (size == 0) ? 0 : (int) Math.max(1, MAX_BYTES / bytesPerSeries(size));
+
+            histories.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        synchronized (histories) {
+            return size > 0;
+        }
+    }
+
+    /**
+     * Add a view's counts to its history.
+     *
+     * @param key
+     *            view and whose view of its jobs was counted
+     * @param count
+     *            job status counts for the view
+     * @param now
+     *            time of the count in milliseconds
+     * @return the view's history, or null if none is kept
+     */
+    Series record(Key key, JobStatusCount count, long now) {
+
+        Series series;
+
+        synchronized (histories) {
+
+            if (size == 0) {
+                return null;
+            }
+
+            series = histories.get(key);
+            if (series == null) {
+                series = new Series(size, intervalMillis);
+                histories.put(key, series);
+            }
+        }
+
+        series.add(now, count);
+
+        return series;
+    }
+
+    /**
+     * A number that changes when the trends may have moved on without anything being counted.
+     *
+     * @param now
+     *            time in milliseconds
+     * @return sampling interval the time falls in
+     */
+    public long periodAt(long now) {
+        synchronized (histories) {
+            return now / intervalMillis;
+        }
+    }
+
+    public int size() {
+        synchronized (histories) {
+            return histories.size();
+        }
+    }
+
+    /**
+     * @return most views there can be a history for
+     */
+    public int getMaxSeries() {
+        synchronized (histories) {
+            return maxSeries;
+        }
+    }
+
+    static long bytesPerSeries(int size) {
+        return SERIES_BYTES + ((long) (size + 1) * SAMPLE_BYTES);
+    }
+
+    /**
+     * The samples for one view, oldest overwritten first. One more sample than the size is kept, so
+     * that there is always one from the start of the window once the ring is full.
+     */
+    public static final class Series {
+
+        private final int window;
+        private final long intervalMillis;
+
+        private final long[] periods;
+        private final int[] counts;
+
+        private int newest = -1;
+        private int length = 0;
+
+        private Trend trend;
+
+        Series(int window, long intervalMillis) {
+            this.window = window;
+            this.intervalMillis = intervalMillis;
+            this.periods = new long[window + 1];
+            this.counts = new int[(window + 1) * FIELDS];
+        }
+
+        synchronized void add(long now, JobStatusCount count) {
+
+            long period = now / intervalMillis;
+
+            // A later count in the same interval replaces the earlier one
+            if ((length == 0) || (periods[newest] != period)) {
+                newest = (newest + 1) % periods.length;
+                length = Math.min(length + 1, periods.length);
+            }
+
+            periods[newest] = period;
+
+            int i = newest * FIELDS;
+            counts[i + TOTAL] = count.total();
+            counts[i + FAILED] = count.failed();
+            counts[i + SUCCESSFUL] = count.successful();
+
+            trend = null;
+        }
+
+        /**
+         * Get the change from the start of the window to the latest sample, working it out only
+         * once for each interval.
+         *
+         * @param now
+         *            time in milliseconds
+         * @return trend, the same instance until the interval or the samples change
+         */
+        synchronized Trend trend(long now) {
+
+            long period = now / intervalMillis;
+
+            if ((trend == null) || (trend.period != period)) {
+                trend = trendAt(period);
+            }
+
+            return trend;
+        }
+
+        private Trend trendAt(long period) {
+
+            if (length == 0) {
+                return new Trend(period, 0, 0);
+            }
+
+            // The latest sample from before the window, or the oldest if the history is shorter
+            int start = (newest - (length - 1) + periods.length) % periods.length;
+
+            for (int back = 0; back < length; back++) {
+
+                int i = (newest - back + periods.length) % periods.length;
+
+                if (periods[i] <= (period - window)) {
+                    start = i;
+                    break;
+                }
+            }
+
+            int from = start * FIELDS;
+            int to = newest * FIELDS;
+
+            return new Trend(period, counts[to + FAILED] - counts[from + FAILED],
+                    passRate(to) - passRate(from));
+        }
+
+        private int passRate(int i) {
+
+            int total = counts[i + TOTAL];
+
+            return (total == 0) ? 0 : ((counts[i + SUCCESSFUL] * 100) + (total / 2)) / total;
+        }
+    }
+
+    /**
+     * How a view's counts have changed over its history.
+     */
+    public static final class Trend {
+
+        /** No history, or no change. */
+        static final Trend NONE = new Trend(0, 0, 0);
+
+        private final long period;
+        private final int failedChange;
+        private final int passRateChange;
+
+        Trend(long period, int failedChange, int passRateChange) {
+            this.period = period;
+            this.failedChange = failedChange;
+            this.passRateChange = passRateChange;
+        }
+
+        /**
+         * @return change in the number of failed jobs
+         */
+        public int getFailedChange() {
+            return failedChange;
+        }
+
+        /**
+         * @return change in the percentage of jobs that are successful
+         */
+        public int getPassRateChange() {
+            return passRateChange;
+        }
+
+        /**
+         * Append a change with its sign, or just 0 for no change.
+         *
+         * @param label
+         *            builder to append to
+         * @param change
+         *            change to append
+         */
+        static void appendChange(StringBuilder label, int change) {
+
+            if (change > 0) {
+                label.append('+');
+            }
+            label.append(change);
+        }
+    }
+}
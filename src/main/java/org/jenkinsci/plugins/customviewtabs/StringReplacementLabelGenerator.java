@@ -17,13 +17,17 @@ package org.jenkinsci.plugins.customviewtabs;
 
 import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.DISABLED;
 import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.FAILED;
+import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.FAILED_CHANGE;
 import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.NAME;
+import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.PASS_RATE_CHANGE;
 import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.REGEXNAME;
 import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.SHORTNAME;
 import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.SUCCESSFUL;
 import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.TOTAL;
 import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.UNSTABLE;
 
+import java.util.regex.Pattern;
+
 /**
  * Generate labels using simple string replacement in a crude, ugly and inefficient manner.
  * 
@@ -31,12 +35,12 @@ import static org.jenkinsci.plugins.customviewtabs.LabelPatterns.UNSTABLE;
  */
 public class StringReplacementLabelGenerator implements LabelGenerator {
 
-    private String nameRegexMatch;
+    private Pattern nameRegexMatch;
     private String nameRegexReplacement;
     private int shortNameLength;
 
     public StringReplacementLabelGenerator(String nameRegexMatch, String nameRegexReplacement, int shortNameLength) {
-        this.nameRegexMatch = nameRegexMatch;
+        this.nameRegexMatch = Pattern.compile(nameRegexMatch);
         this.nameRegexReplacement = nameRegexReplacement;
         this.shortNameLength = shortNameLength;
     }
@@ -52,6 +56,12 @@ public class StringReplacementLabelGenerator implements LabelGenerator {
         label = label.replaceAll(UNSTABLE, with(jobCount.unstable()));
         label = label.replaceAll(SUCCESSFUL, with(jobCount.successful()));
 
+        if (label.contains("$d")) {
+            StatusHistory.Trend trend = jobCount.trend();
+            label = label.replaceAll(FAILED_CHANGE, withSign(trend.getFailedChange()));
+            label = label.replaceAll(PASS_RATE_CHANGE, withSign(trend.getPassRateChange()));
+        }
+
         return label;
     }
 
@@ -59,8 +69,12 @@ public class StringReplacementLabelGenerator implements LabelGenerator {
         return Integer.toString(i);
     }
 
+    private String withSign(int i) {
+        return (i > 0) ? "+" + i : Integer.toString(i);
+    }
+
     private String getRegexName(String displayName) {
-        return displayName.replaceAll(nameRegexMatch, nameRegexReplacement);
+        return nameRegexMatch.matcher(displayName).replaceAll(nameRegexReplacement);
     }
 
     private String shorten(String displayName) {
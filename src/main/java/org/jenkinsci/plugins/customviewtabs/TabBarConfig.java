@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.CountMode;
+
+/**
+ * Everything needed to turn a view's job counts into its tab, taken from the descriptor in one go
+ * when the configuration is loaded or saved. Nothing in it changes afterwards, so a tab bar rendered
+ * with one of these can't see half of a configuration change. Read it once for each render and pass
+ * it down.
+ * <p>
+ * Counts only go as far as the configuration they were taken for needed, so counts taken before a
+ * change to one that needs more are not {@link #canShow shown}.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public final class TabBarConfig {
+
+    private final TemplateLabelGenerator labelGenerator;
+
+    private final boolean conditionActiveTab;
+    private final boolean conditionInactiveTab;
+
+    private final ColourTable colours;
+
+    private final CountMode countMode;
+    private final boolean usesTrends;
+
+    private final int maxTabs;
+    private final Set<String> pinnedViews;
+
+    /**
+     * @param labelGenerator
+     *            compiled label patterns
+     * @param conditionActiveTab
+     *            show just the view name on the active tab when all jobs are ok
+     * @param conditionInactiveTab
+     *            show just the view name on inactive tabs when all jobs are ok
+     * @param colours
+     *            colour settings
+     */
+    public TabBarConfig(TemplateLabelGenerator labelGenerator, boolean conditionActiveTab,
+            boolean conditionInactiveTab, TabColours colours) {
+        this(labelGenerator, conditionActiveTab, conditionInactiveTab, Collections.<ColourRule> emptyList(), colours,
+                0, "");
+    }
+
+    /**
+     * @param labelGenerator
+     *            compiled label patterns
+     * @param conditionActiveTab
+     *            show just the view name on the active tab when all jobs are ok
+     * @param conditionInactiveTab
+     *            show just the view name on inactive tabs when all jobs are ok
+     * @param colourRules
+     *            colour rules to try before the status colours
+     * @param colours
+     *            default and status colour settings
+     * @param maxTabs
+     *            most tabs to show before the rest go in a menu, or 0 to show them all
+     * @param pinnedViews
+     *            names of views that always get a tab, separated by commas
+     */
+    public TabBarConfig(TemplateLabelGenerator labelGenerator, boolean conditionActiveTab,
+            boolean conditionInactiveTab, List<ColourRule> colourRules, TabColours colours, int maxTabs,
+            String pinnedViews) {
+
+        this.labelGenerator = labelGenerator;
+        this.conditionActiveTab = conditionActiveTab;
+        this.conditionInactiveTab = conditionInactiveTab;
+        this.colours = ColourTable.compile(colourRules, colours);
+        this.countMode = countMode();
+        this.usesTrends = labelGenerator.getActiveTemplate().usesTrends()
+                || labelGenerator.getInactiveTemplate().usesTrends();
+        this.maxTabs = maxTabs;
+        this.pinnedViews = namesIn(pinnedViews);
+    }
+
+    /**
+     * @param jobCount
+     *            job status counts for a view, or null if it wasn't counted in time
+     * @return whether the counts go as far as the labels and colour need
+     */
+    public boolean canShow(JobStatusCount jobCount) {
+        return (jobCount != null) && (jobCount.countMode().compareTo(countMode) >= 0);
+    }
+
+    /**
+     * Work out the labels and colour for a tab without remembering them.
+     *
+     * @param displayName
+     *            view name
+     * @param jobCount
+     *            job status counts for the view
+     * @return tab data, which can't be changed
+     */
+    public TabDisplayMetaData tabDataFor(String displayName, JobStatusCount jobCount) {
+
+        boolean allOk = (conditionActiveTab || conditionInactiveTab) && jobCount.allOk();
+
+        String active = (conditionActiveTab && allOk) ? displayName
+                : labelGenerator.generateLabel(displayName, jobCount, labelGenerator.getActiveTemplate());
+
+        String inactive;
+        if (conditionInactiveTab && allOk) {
+            inactive = displayName;
+        }
+        else if (labelGenerator.getInactiveTemplate() == labelGenerator.getActiveTemplate()) {
+            inactive = active;
+        }
+        else {
+            inactive = labelGenerator.generateLabel(displayName, jobCount, labelGenerator.getInactiveTemplate());
+        }
+
+        return TabDisplayMetaData.unmodifiable(active, inactive, colours.colourFor(jobCount));
+    }
+
+    /**
+     * @return colour for tabs that show just the view name
+     */
+    public String getDefaultColour() {
+        return colours.getDefaultColour();
+    }
+
+    /**
+     * @return most tabs to show, or 0 to show them all
+     */
+    public int getMaxTabs() {
+        return maxTabs;
+    }
+
+    /**
+     * @return names of views that always get a tab
+     */
+    public Set<String> getPinnedViews() {
+        return pinnedViews;
+    }
+
+    /**
+     * @return whether the labels show trends, which move on over time as well as when counts change
+     */
+    public boolean usesTrends() {
+        return usesTrends;
+    }
+
+    public TemplateLabelGenerator getLabelGenerator() {
+        return labelGenerator;
+    }
+
+    /**
+     * @return how much counting the labels and colours need
+     */
+    public CountMode getCountMode() {
+        return countMode;
+    }
+
+    private CountMode countMode() {
+
+        boolean labelsNeedCounts = labelGenerator.getActiveTemplate().usesCounts()
+                || labelGenerator.getInactiveTemplate().usesCounts()
+                || conditionActiveTab
+                || conditionInactiveTab;
+
+        if (labelsNeedCounts || colours.needsFullCounts()) {
+            return CountMode.FULL;
+        }
+        if (colours.dependsOnStatus()) {
+            return CountMode.UNTIL_FAILURE;
+        }
+
+        return CountMode.NONE;
+    }
+
+    private static Set<String> namesIn(String names) {
+
+        Set<String> set = new HashSet<String>();
+
+        if (names != null) {
+            for (String name : names.split(",")) {
+                if (name.trim().length() > 0) {
+                    set.add(name.trim());
+                }
+            }
+        }
+
+        return Collections.unmodifiableSet(set);
+    }
+}
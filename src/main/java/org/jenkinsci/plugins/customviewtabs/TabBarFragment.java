@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rendered HTML for the view tabs, the same markup that custom-tab.jelly produces. The tab bar
+ * id is different on every page, so the HTML is kept in pieces either side of it.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public final class TabBarFragment {
+
+    private final String[] segments;
+    private final int length;
+
+    private TabBarFragment(List<String> segments) {
+
+        this.segments = segments.toArray(new String[segments.size()]);
+
+        int l = 0;
+        for (String segment : segments) {
+            l += segment.length();
+        }
+        length = l;
+    }
+
+    /**
+     * Render a tab for each view.
+     *
+     * @param views
+     *            views in the tab bar
+     * @param tabData
+     *            tab data for each view, in the same order
+     * @param currentView
+     *            the view being shown, which gets the active tab
+     * @param rootURL
+     *            root URL for the links
+     * @return rendered tabs
+     */
+    public static TabBarFragment render(List<View> views, List<TabDisplayMetaData> tabData, View currentView,
+            String rootURL) {
+
+        List<String> segments = new ArrayList<String>();
+        StringBuilder html = new StringBuilder(128 * views.size());
+
+        for (int i = 0; i < views.size(); i++) {
+
+            View v = views.get(i);
+            TabDisplayMetaData data = tabData.get(i);
+            boolean active = (v == currentView);
+
+            html.append(active ? "<div class=\"tab active\">" : "<div class=\"tab\">");
+
+            html.append("<input type=\"radio\" id=\"tab-");
+            segments.add(html.toString());
+            html.setLength(0);
+
+            html.append('-').append(i).append("\" name=\"tab-group-");
+            segments.add(html.toString());
+            html.setLength(0);
+
+            html.append(active ? "\" checked=\"checked\" />" : "\" />");
+
+            html.append("<a href=\"");
+            escape(html, rootURL + "/" + v.getUrl());
+            html.append("\" style=\"background-color: #");
+            escape(html, data.getColour());
+            html.append("\">");
+            escape(html, active ? data.getActiveLabel() : data.getInactiveLabel());
+            html.append("</a></div>");
+        }
+
+        segments.add(html.toString());
+
+        return new TabBarFragment(segments);
+    }
+
+    /**
+     * Get the HTML for a particular tab bar.
+     *
+     * @param tabBarId
+     *            id of the tab bar on this page
+     * @return HTML for the tabs
+     */
+    public String toHtml(String tabBarId) {
+
+        StringBuilder html = new StringBuilder(length + (segments.length * tabBarId.length()));
+
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                html.append(tabBarId);
+            }
+            html.append(segments[i]);
+        }
+
+        return html.toString();
+    }
+
+    private static void escape(StringBuilder html, String text) {
+
+        if (text == null) {
+            return;
+        }
+
+        for (int i = 0; i < text.length(); i++) {
+
+            char c = text.charAt(i);
+
+            switch (c) {
+                case '&':
+                    html.append("&amp;");
+                    break;
+                case '<':
+                    html.append("&lt;");
+                    break;
+                case '>':
+                    html.append("&gt;");
+                    break;
+                case '"':
+                    html.append("&quot;");
+                    break;
+                case '\'':
+                    html.append("&#39;");
+                    break;
+                default:
+                    html.append(c);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.View;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers rendered tab bars. Most users see the same tabs on most pages, so a tab bar only needs
+ * rendering again when the configuration, the current view, the visible views, the user's view of
+ * the jobs, or the counts of one of the views shown changes. A build of a job in none of the views
+ * shown leaves the tab bar as it was. The least recently used tab bars are evicted beyond a fixed
+ * number.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TabBarFragmentCache {
+
+    static final int MAX_FRAGMENTS = 256;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private final Map<Key, TabBarFragment> fragments = new LinkedHashMap<Key, TabBarFragment>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, TabBarFragment> eldest) {
+            return size() > MAX_FRAGMENTS;
+        }
+    };
+
+    /**
+     * Get a rendered tab bar.
+     *
+     * @param key
+     *            what the tab bar was rendered for
+     * @return rendered tabs, or null if they need rendering
+     */
+    public TabBarFragment get(Key key) {
+
+        TabBarFragment fragment;
+        synchronized (fragments) {
+            fragment = fragments.get(key);
+        }
+
+        if (fragment == null) {
+            misses.incrementAndGet();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+
+        return fragment;
+    }
+
+    public void put(Key key, TabBarFragment fragment) {
+        synchronized (fragments) {
+            fragments.put(key, fragment);
+        }
+    }
+
+    /**
+     * Forget all rendered tab bars, for example when the configuration changes.
+     */
+    public void clear() {
+        synchronized (fragments) {
+            fragments.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (fragments) {
+            return fragments.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Percentage of lookups that found a rendered tab bar.
+     *
+     * @return hit rate from 0 to 100
+     */
+    public int getHitPercentage() {
+
+        long h = hits.get();
+        long total = h + misses.get();
+
+        return (total == 0) ? 0 : (int) ((h * 100) / total);
+    }
+
+    /**
+     * Everything that affects the rendered tabs.
+     */
+    public static final class Key {
+
+        private final TabBarConfig config;
+        private final String visibility;
+        private final boolean plainNames;
+        private final long viewsVersion;
+        private final JobStatusCount[] counts;
+        private final long trendPeriod;
+        private final String rootURL;
+        private final View currentView;
+        private final View[] views;
+        private final int hash;
+
+        /**
+         * @param config
+         *            configuration the tabs were rendered with
+         * @param visibility
+         *            whose view of the jobs the tabs show
+         * @param plainNames
+         *            whether the tabs show just the view names
+         * @param viewsVersion
+         *            version of the views, which changes when their names or items may have
+         * @param counts
+         *            counts shown for each view, compared by identity since counts that have
+         *            changed are new objects, or an empty list for plain names
+         * @param trendPeriod
+         *            interval the trends shown were worked out for, or 0 if they show none
+         * @param rootURL
+         *            root URL for the links
+         * @param currentView
+         *            the view being shown
+         * @param views
+         *            views in the tab bar
+         */
+        public Key(TabBarConfig config, String visibility, boolean plainNames, long viewsVersion,
+                List<JobStatusCount> counts, long trendPeriod, String rootURL, View currentView, List<View> views) {
+
+            this.config = config;
+            this.visibility = visibility;
+            this.plainNames = plainNames;
+            this.viewsVersion = viewsVersion;
+            this.counts = counts.toArray(new JobStatusCount[counts.size()]);
+            this.trendPeriod = trendPeriod;
+            this.rootURL = rootURL;
+            this.currentView = currentView;
+            this.views = views.toArray(new View[views.size()]);
+
+            int h = System.identityHashCode(config);
+            h = (31 * h) + visibility.hashCode();
+            h = (31 * h) + (plainNames ? 1 : 0);
+            h = (31 * h) + (int) (viewsVersion ^ (viewsVersion >>> 32));
+            for (JobStatusCount jobCount : this.counts) {
+                h = (31 * h) + System.identityHashCode(jobCount);
+            }
+            h = (31 * h) + (int) (trendPeriod ^ (trendPeriod >>> 32));
+            h = (31 * h) + String.valueOf(rootURL).hashCode();
+            h = (31 * h) + System.identityHashCode(currentView);
+            for (View v : this.views) {
+                h = (31 * h) + System.identityHashCode(v);
+            }
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+
+            if ((hash != other.hash) || (config != other.config) || (plainNames != other.plainNames) || (viewsVersion != other.viewsVersion)
+                    || (trendPeriod != other.trendPeriod) || (currentView != other.currentView)
+                    || (views.length != other.views.length) || (counts.length != other.counts.length)) {
+                return false;
+            }
+
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != other.counts[i]) {
+                    return false;
+                }
+            }
+
+            for (int i = 0; i < views.length; i++) {
+                if (views[i] != other.views[i]) {
+                    return false;
+                }
+            }
+
+            return visibility.equals(other.visibility) && String.valueOf(rootURL).equals(String.valueOf(other.rootURL));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
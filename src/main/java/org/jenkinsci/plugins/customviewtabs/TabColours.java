@@ -149,6 +149,18 @@ public class TabColours {
         }
     }
 
+    /**
+     * Whether the colour can change with job status at all. If the failed, unstable and disabled
+     * colours are all the same as the default, jobs don't need to be counted to colour a tab.
+     *
+     * @return true if the colour depends on job status
+     */
+    public boolean dependsOnStatus() {
+        return !(tabColourFailed.equalsIgnoreCase(tabColourDefault)
+                && tabColourUnstable.equalsIgnoreCase(tabColourDefault)
+                && tabColourDisabled.equalsIgnoreCase(tabColourDefault));
+    }
+
     public String getTabColourDefault() {
         return tabColourDefault;
     }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.View;
+
+/**
+ * Remembers the tab data for each view until the configuration, its job counts or its name change,
+ * or its trend moves on to another interval if the labels show one. Counts are shared and only
+ * replaced when something changes, so most tabs are rendered without building anything.
+ * <p>
+ * Each view's tab is looked up by the view's identity without taking any lock, and the tab data
+ * handed out can't be changed, so it is safe to share between pages.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TabDataCache {
+
+    private final ViewMap<RenderedTab> tabs = new ViewMap<RenderedTab>();
+
+    /**
+     * Get the labels and colour for a view's tab.
+     *
+     * @param config
+     *            configuration the tab bar is being rendered with
+     * @param v
+     *            view
+     * @param jobCount
+     *            job status counts for the view
+     * @return tab data, the same instance as last time if nothing has changed
+     */
+    public TabDisplayMetaData tabDataFor(TabBarConfig config, View v, JobStatusCount jobCount) {
+
+        String displayName = v.getDisplayName();
+        StatusHistory.Trend trend = config.usesTrends() ? jobCount.trend() : null;
+
+        RenderedTab tab = tabs.get(v);
+
+        if ((tab != null) && (tab.config == config) && (tab.jobCount == jobCount) && (tab.trend == trend)
+                && tab.displayName.equals(displayName)) {
+            return tab.data;
+        }
+
+        TabDisplayMetaData data = config.tabDataFor(displayName, jobCount);
+
+        tabs.put(v, new RenderedTab(config, jobCount, trend, displayName, data));
+
+        return data;
+    }
+
+    /**
+     * Forget every tab, for example when the configuration changes.
+     */
+    public void clear() {
+        tabs.clear();
+    }
+
+    public int size() {
+        return tabs.size();
+    }
+
+    private static final class RenderedTab {
+
+        private final TabBarConfig config;
+        private final JobStatusCount jobCount;
+        private final StatusHistory.Trend trend;
+        private final String displayName;
+        private final TabDisplayMetaData data;
+
+        RenderedTab(TabBarConfig config, JobStatusCount jobCount, StatusHistory.Trend trend, String displayName,
+                TabDisplayMetaData data) {
+            this.config = config;
+            this.jobCount = jobCount;
+            this.trend = trend;
+            this.displayName = displayName;
+            this.data = data;
+        }
+    }
+}
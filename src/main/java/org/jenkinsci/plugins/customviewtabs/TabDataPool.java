@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+/**
+ * A small, bounded pool of daemon threads for counting the jobs in several views at once. Tasks run
+ * as the user who submitted them, because the items a view shows depend on who is asking.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+final class TabDataPool {
+
+    static final int THREADS = Math.min(8, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            THREADS, THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new NamingThreadFactory(new DaemonThreadFactory(), "CustomViewsTabBar.tabData"));
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private TabDataPool() {
+    }
+
+    /**
+     * Run the task on the pool with the current user's authentication.
+     *
+     * @param task
+     *            work to do
+     * @return result of the task
+     */
+    static <T> Future<T> submit(final Callable<T> task) {
+
+        final Authentication auth = Jenkins.getAuthentication();
+
+        return EXECUTOR.submit(new Callable<T>() {
+            public T call() throws Exception {
+
+                SecurityContext previous = ACL.impersonate(auth);
+                try {
+                    return task.call();
+                }
+                finally {
+                    SecurityContextHolder.setContext(previous);
+                }
+            }
+        });
+    }
+}
@@ -17,6 +17,9 @@ package org.jenkinsci.plugins.customviewtabs;
 
 /**
  * Metadata for tab display customisation accounting for different states.
+ * <p>
+ * Tab data from the tab bar is shared between pages and threads, so it can't be changed; use the
+ * constructors for tab data of your own.
  * 
  * @author Alistair Todd ringracer@gmail.com
  */
@@ -32,6 +35,27 @@ public class TabDisplayMetaData {
         this.tabColour = tabColour;
     }
 
+    public TabDisplayMetaData(String activeLabel, String inactiveLabel, String tabColour) {
+        this.activeLabel = activeLabel;
+        this.inactiveLabel = inactiveLabel;
+        this.tabColour = tabColour;
+    }
+
+    /**
+     * Tab data that can be shared, whose setters throw {@link UnsupportedOperationException}.
+     *
+     * @param activeLabel
+     *            text to display when tab is active
+     * @param inactiveLabel
+     *            text to display when tab is inactive
+     * @param tabColour
+     *            6 character hex colour code without a leading #
+     * @return tab data that can't be changed
+     */
+    static TabDisplayMetaData unmodifiable(String activeLabel, String inactiveLabel, String tabColour) {
+        return new Unmodifiable(activeLabel, inactiveLabel, tabColour);
+    }
+
     /**
      * Get the label text to display when tab is active.
      * 
@@ -93,4 +117,26 @@ public class TabDisplayMetaData {
         this.tabColour = tabColour;
     }
 
+    private static final class Unmodifiable extends TabDisplayMetaData {
+
+        Unmodifiable(String activeLabel, String inactiveLabel, String tabColour) {
+            super(activeLabel, inactiveLabel, tabColour);
+        }
+
+        @Override
+        public void setActiveLabel(String activeLabel) {
+            throw new UnsupportedOperationException("Tab data is shared, make a new one instead");
+        }
+
+        @Override
+        public void setInactiveLabel(String inactiveLabel) {
+            throw new UnsupportedOperationException("Tab data is shared, make a new one instead");
+        }
+
+        @Override
+        public void setColour(String tabColour) {
+            throw new UnsupportedOperationException("Tab data is shared, make a new one instead");
+        }
+    }
+
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.View;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Timings and counters for each view's tab, so that a slow page can be traced to the tab that
+ * made it slow. Each view keeps its recent counting times, from which the slowest views are found
+ * by their 95th percentile. Views that take longer to count than a threshold are logged.
+ * <p>
+ * Views are held weakly, so deleted views drop out on their own. Every tab on every page records
+ * here, so a view's metrics are found without taking any lock.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TabMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(TabMetrics.class.getName());
+
+    /** Number of recent counting times kept for each view. */
+    static final int SAMPLES = 128;
+
+    private final ViewMap<ViewMetrics> views = new ViewMap<ViewMetrics>();
+
+    private volatile long slowThresholdNanos = 0;
+
+    /**
+     * Set how long counting a view can take before it is logged.
+     *
+     * @param millis
+     *            threshold in milliseconds, or 0 to log nothing
+     */
+    public void setSlowThreshold(long millis) {
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Record that the view's counts were found in the cache.
+     *
+     * @param v
+     *            view
+     */
+    public void recordHit(View v) {
+        metricsFor(v).hits.incrementAndGet();
+    }
+
+    /**
+     * Record that the view had to be counted.
+     *
+     * @param v
+     *            view
+     * @param extractNanos
+     *            time spent asking the views for their items
+     * @param countNanos
+     *            time spent counting the items
+     * @param jobs
+     *            number of jobs counted, which may be more than the items holding them
+     */
+    public void recordCount(View v, long extractNanos, long countNanos, int jobs) {
+
+        metricsFor(v).recordCount(extractNanos, countNanos, jobs);
+
+        long threshold = slowThresholdNanos;
+        if ((threshold > 0) && ((extractNanos + countNanos) >= threshold)) {
+            LOGGER.warning("Slow view tab: " + v.getViewName() + " took "
+                    + TimeUnit.NANOSECONDS.toMillis(extractNanos + countNanos) + "ms to count " + jobs
+                    + " jobs (" + TimeUnit.NANOSECONDS.toMillis(extractNanos) + "ms getting items, "
+                    + TimeUnit.NANOSECONDS.toMillis(countNanos) + "ms counting)");
+        }
+    }
+
+    /**
+     * Record the time spent generating the view's labels and colour.
+     *
+     * @param v
+     *            view
+     * @param labelNanos
+     *            time taken
+     */
+    public void recordLabels(View v, long labelNanos) {
+
+        ViewMetrics metrics = metricsFor(v);
+
+        metrics.labels.incrementAndGet();
+        metrics.labelNanos.addAndGet(labelNanos);
+    }
+
+    /**
+     * Get the views that take longest to count, by 95th percentile.
+     *
+     * @param limit
+     *            most views to return
+     * @return slowest views first
+     */
+    public List<ViewMetrics> getSlowest(int limit) {
+
+        List<ViewMetrics> all = new ArrayList<ViewMetrics>(views.values());
+
+        final Map<ViewMetrics, Long> p95 = new IdentityHashMap<ViewMetrics, Long>();
+        for (ViewMetrics metrics : all) {
+            p95.put(metrics, metrics.getP95Nanos());
+        }
+
+        Collections.sort(all, new Comparator<ViewMetrics>() {
+            public int compare(ViewMetrics a, ViewMetrics b) {
+                return p95.get(b).compareTo(p95.get(a));
+            }
+        });
+
+        return all.subList(0, Math.min(limit, all.size()));
+    }
+
+    public int size() {
+        return views.size();
+    }
+
+    ViewMetrics metricsFor(View v) {
+
+        ViewMetrics metrics = views.get(v);
+        if (metrics != null) {
+            return metrics;
+        }
+
+        metrics = new ViewMetrics(v);
+
+        ViewMetrics existing = views.putIfAbsent(v, metrics);
+
+        return (existing == null) ? metrics : existing;
+    }
+
+    /**
+     * Timings and counters for one view.
+     */
+    public static final class ViewMetrics {
+
+        private final WeakReference<View> view;
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong labels = new AtomicLong();
+        private final AtomicLong labelNanos = new AtomicLong();
+
+        private final long[] samples = new long[SAMPLES];
+        private long counts;
+        private long extractNanos;
+        private long countNanos;
+        private long jobs;
+        private int lastJobs;
+
+        ViewMetrics(View view) {
+            this.view = new WeakReference<View>(view);
+        }
+
+        synchronized void recordCount(long extract, long count, int jobCount) {
+
+            samples[(int) (counts % SAMPLES)] = extract + count;
+            counts++;
+
+            extractNanos += extract;
+            countNanos += count;
+            jobs += jobCount;
+            lastJobs = jobCount;
+        }
+
+        /**
+         * @return the view, or null if it has gone
+         */
+        public View getView() {
+            return view.get();
+        }
+
+        public String getViewName() {
+            View v = view.get();
+            return (v == null) ? "" : v.getDisplayName();
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public synchronized long getMisses() {
+            return counts;
+        }
+
+        public synchronized int getLastJobs() {
+            return lastJobs;
+        }
+
+        /**
+         * 95th percentile of the recent counting times.
+         *
+         * @return nanoseconds
+         */
+        public long getP95Nanos() {
+
+            long[] recent;
+            synchronized (this) {
+                recent = Arrays.copyOf(samples, (int) Math.min(counts, SAMPLES));
+            }
+
+            if (recent.length == 0) {
+                return 0;
+            }
+
+            Arrays.sort(recent);
+
+            return recent[(int) Math.ceil(recent.length * 0.95) - 1];
+        }
+
+        public long getP95Millis() {
+            return TimeUnit.NANOSECONDS.toMillis(getP95Nanos());
+        }
+
+        public synchronized long getMeanExtractMillis() {
+            return (counts == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(extractNanos / counts);
+        }
+
+        public synchronized long getMeanCountMillis() {
+            return (counts == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(countNanos / counts);
+        }
+
+        public synchronized long getMeanJobs() {
+            return (counts == 0) ? 0 : jobs / counts;
+        }
+
+        public long getMeanLabelMicros() {
+            long n = labels.get();
+            return (n == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(labelNanos.get() / n);
+        }
+    }
+}
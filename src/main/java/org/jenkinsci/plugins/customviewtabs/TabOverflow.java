@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.View;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Chooses which views get a tab when there are too many to show. The current view always gets one,
+ * then the pinned views, then the most recently shown, then the rest in tab bar order until there
+ * are as many tabs as allowed. The chosen views keep their tab bar order, and the others go in the
+ * "more" menu, which loads its labels and counts only when it is opened.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TabOverflow {
+
+    private final Map<View, Long> lastShown = new WeakHashMap<View, Long>();
+
+    /**
+     * Remember that a view has just been shown.
+     *
+     * @param v
+     *            view being shown
+     */
+    public void shown(View v) {
+
+        if (v == null) {
+            return;
+        }
+
+        synchronized (lastShown) {
+            lastShown.put(v, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Choose the views that get a tab.
+     *
+     * @param views
+     *            views in the tab bar, in order
+     * @param currentView
+     *            the view being shown
+     * @param maxTabs
+     *            most tabs to show, or 0 to show them all
+     * @param pinned
+     *            names of views that always get a tab if there's room
+     * @return views that get a tab, in tab bar order
+     */
+    public List<View> select(List<View> views, View currentView, int maxTabs, Set<String> pinned) {
+
+        if ((maxTabs <= 0) || (views.size() <= maxTabs)) {
+            return views;
+        }
+
+        Set<View> chosen = Collections.newSetFromMap(new IdentityHashMap<View, Boolean>());
+
+        if (views.contains(currentView)) {
+            chosen.add(currentView);
+        }
+
+        for (View v : views) {
+            if (chosen.size() >= maxTabs) {
+                break;
+            }
+            if (pinned.contains(v.getViewName())) {
+                chosen.add(v);
+            }
+        }
+
+        if (chosen.size() < maxTabs) {
+            for (View v : mostRecentlyShown(views, chosen)) {
+                if (chosen.size() >= maxTabs) {
+                    break;
+                }
+                chosen.add(v);
+            }
+        }
+
+        for (View v : views) {
+            if (chosen.size() >= maxTabs) {
+                break;
+            }
+            chosen.add(v);
+        }
+
+        List<View> shown = new ArrayList<View>(chosen.size());
+        for (View v : views) {
+            if (chosen.contains(v)) {
+                shown.add(v);
+            }
+        }
+
+        return shown;
+    }
+
+    private List<View> mostRecentlyShown(List<View> views, Set<View> chosen) {
+
+        final Map<View, Long> times = new IdentityHashMap<View, Long>();
+
+        synchronized (lastShown) {
+            for (View v : views) {
+                Long time = lastShown.get(v);
+                if ((time != null) && !chosen.contains(v)) {
+                    times.put(v, time);
+                }
+            }
+        }
+
+        List<View> recent = new ArrayList<View>(times.keySet());
+
+        Collections.sort(recent, new Comparator<View>() {
+            public int compare(View a, View b) {
+                long ta = times.get(a);
+                long tb = times.get(b);
+                return (ta > tb) ? -1 : ((ta < tb) ? 1 : 0);
+            }
+        });
+
+        return recent;
+    }
+}
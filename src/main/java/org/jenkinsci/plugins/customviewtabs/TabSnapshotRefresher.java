@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.customviewtabs.CustomViewsTabBar.CustomViewsTabBarDescriptor;
+
+/**
+ * Refreshes the {@link TabSnapshots} in the background. The recurrence period of a
+ * {@link PeriodicWork} is fixed when Jenkins starts, so this ticks every second and leaves it to the
+ * snapshots to decide whether the configured refresh interval has passed. The counting itself is
+ * handed to the tab data pool to keep the shared timer free.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+@Extension
+public class TabSnapshotRefresher extends PeriodicWork {
+
+    static final long TICK = TimeUnit.SECONDS.toMillis(1);
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TICK;
+    }
+
+    @Override
+    protected void doRun() throws Exception {
+
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+
+        CustomViewsTabBarDescriptor d = jenkins.getDescriptorByType(CustomViewsTabBarDescriptor.class);
+        if (d == null) {
+            return;
+        }
+
+        final TabSnapshots snapshots = d.getSnapshots();
+
+        if (snapshots.isRefreshDue(System.currentTimeMillis())) {
+            TabDataPool.submit(new Callable<Void>() {
+                public Void call() {
+                    snapshots.refresh();
+                    return null;
+                }
+            });
+        }
+    }
+}
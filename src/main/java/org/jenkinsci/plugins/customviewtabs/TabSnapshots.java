@@ -0,0 +1,343 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.View;
+import hudson.security.ACL;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.Key;
+
+/**
+ * Job status counts that may be a little out of date, so that rendering the tab bar never has to
+ * wait for counting. Every view that has been shown to a user is recounted in the background by
+ * {@link TabSnapshotRefresher}, and the results are published together as one immutable map that
+ * is read without locking. A view is only counted while the page waits if it has never been
+ * counted for that user, or if its snapshot is older than the maximum staleness.
+ * <p>
+ * With no maximum staleness the snapshots are switched off and the live {@link TabStatusCache} is
+ * used directly.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TabSnapshots {
+
+    private static final Logger LOGGER = Logger.getLogger(TabSnapshots.class.getName());
+
+    /** Views that nobody has looked at for this long are no longer refreshed. */
+    static final long FORGET_AFTER = TimeUnit.MINUTES.toMillis(10);
+
+    private final TabStatusCache statusCache;
+
+    private volatile long refreshInterval;
+    private volatile long maxStaleness;
+
+    private volatile Map<Key, Snapshot> snapshots = Collections.emptyMap();
+    private final ConcurrentMap<Key, Subscription> subscriptions = new ConcurrentHashMap<Key, Subscription>();
+    private final Object publishLock = new Object();
+
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long lastRefresh;
+
+    public TabSnapshots(TabStatusCache statusCache) {
+        this.statusCache = statusCache;
+    }
+
+    /**
+     * Set how often the snapshots are refreshed and how old they can be, dropping any existing
+     * snapshots.
+     *
+     * @param refreshInterval
+     *            milliseconds between refreshes
+     * @param maxStaleness
+     *            oldest snapshot in milliseconds that can be shown, or 0 to always count live
+     */
+    public void configure(long refreshInterval, long maxStaleness) {
+
+        this.refreshInterval = refreshInterval;
+        this.maxStaleness = maxStaleness;
+
+        synchronized (publishLock) {
+            subscriptions.clear();
+            snapshots = Collections.emptyMap();
+            version.incrementAndGet();
+        }
+    }
+
+    public boolean isLive() {
+        return maxStaleness <= 0;
+    }
+
+    /**
+     * Get the job status counts for the view as seen by the current user, from the snapshot if it
+     * is recent enough.
+     *
+     * @param v
+     *            view to count
+     * @return job status counts for the view
+     */
+    public JobStatusCount countFor(View v) {
+
+        if (isLive()) {
+            return statusCache.countFor(v);
+        }
+
+        long now = System.currentTimeMillis();
+        Key key = subscribe(v, now);
+
+        Snapshot snapshot = snapshots.get(key);
+        if ((snapshot != null) && ((now - snapshot.taken) <= maxStaleness)) {
+            return snapshot.count;
+        }
+
+        JobStatusCount count = statusCache.countFor(v);
+        publish(key, new Snapshot(count, now), (snapshot == null) || (snapshot.count != count));
+
+        return count;
+    }
+
+    /**
+     * Get the job status counts for the view as seen by the current user, without counting.
+     *
+     * @param v
+     *            view
+     * @return job status counts, or null if the view would have to be counted
+     */
+    public JobStatusCount cachedCountFor(View v) {
+
+        if (isLive()) {
+            return statusCache.cachedCountFor(v);
+        }
+
+        long now = System.currentTimeMillis();
+        Key key = subscribe(v, now);
+
+        Snapshot snapshot = snapshots.get(key);
+
+        return ((snapshot != null) && ((now - snapshot.taken) <= maxStaleness)) ? snapshot.count : null;
+    }
+
+    /**
+     * A number that changes whenever any count that could be shown changes.
+     *
+     * @return status version
+     */
+    public long getVersion() {
+        return isLive() ? statusCache.getVersion() : version.get();
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    public long getLastRefresh() {
+        return lastRefresh;
+    }
+
+    /**
+     * @param now
+     *            current time
+     * @return whether a refresh should be started
+     */
+    public boolean isRefreshDue(long now) {
+        return !isLive() && !refreshing.get() && ((now - lastRefresh) >= refreshInterval);
+    }
+
+    /**
+     * Recount every view that has been shown recently, as the user it was shown to, and publish the
+     * results. Does nothing if a refresh is already running.
+     */
+    public void refresh() {
+
+        if (isLive() || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            lastRefresh = System.currentTimeMillis();
+            doRefresh(lastRefresh);
+        }
+        finally {
+            refreshing.set(false);
+        }
+    }
+
+    private void doRefresh(long now) {
+
+        Map<Key, Snapshot> current = snapshots;
+        Map<Key, Snapshot> next = new HashMap<Key, Snapshot>(subscriptions.size() * 2);
+        boolean changed = false;
+
+        for (Iterator<Map.Entry<Key, Subscription>> entries = subscriptions.entrySet().iterator(); entries.hasNext();) {
+
+            Map.Entry<Key, Subscription> entry = entries.next();
+            Subscription subscription = entry.getValue();
+
+            if ((now - subscription.lastUsed) > FORGET_AFTER) {
+                entries.remove();
+                continue;
+            }
+
+            Snapshot old = current.get(entry.getKey());
+            long taken = System.currentTimeMillis();
+
+            JobStatusCount count;
+            try {
+                count = countAs(subscription.auth, entry.getKey());
+            }
+            catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to count jobs in view " + subscription.view.getViewName(), e);
+                if (old != null) {
+                    next.put(entry.getKey(), old);
+                }
+                continue;
+            }
+
+            if (count == null) {
+                // The user no longer sees what everyone else sharing these counts sees
+                entries.remove();
+                changed |= (old != null);
+                continue;
+            }
+
+            changed |= (old == null) || (old.count != count);
+            next.put(entry.getKey(), new Snapshot(count, taken));
+        }
+
+        synchronized (publishLock) {
+
+            // Keep anything counted by a page while we were refreshing
+            for (Map.Entry<Key, Snapshot> entry : snapshots.entrySet()) {
+
+                Snapshot refreshed = next.get(entry.getKey());
+
+                if ((refreshed == null) ? subscriptions.containsKey(entry.getKey())
+                        : (entry.getValue().taken > refreshed.taken)) {
+                    next.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            snapshots = Collections.unmodifiableMap(next);
+
+            if (changed) {
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    private Key subscribe(View v, long now) {
+
+        Key key = statusCache.keyFor(v);
+
+        Subscription subscription = subscriptions.get(key);
+        if (subscription == null) {
+            subscription = new Subscription(v, authentication());
+            Subscription existing = subscriptions.putIfAbsent(key, subscription);
+            if (existing != null) {
+                subscription = existing;
+            }
+        }
+
+        subscription.lastUsed = now;
+
+        return key;
+    }
+
+    private void publish(Key key, Snapshot snapshot, boolean changed) {
+
+        synchronized (publishLock) {
+
+            Map<Key, Snapshot> next = new HashMap<Key, Snapshot>(snapshots);
+            next.put(key, snapshot);
+            snapshots = Collections.unmodifiableMap(next);
+
+            if (changed) {
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return who is asking for the counts
+     */
+    protected Authentication authentication() {
+        return Jenkins.getAuthentication();
+    }
+
+    /**
+     * Count the view as a particular user. Counts may be shared by users who see the same jobs, so
+     * nothing is counted if the user no longer sees the jobs the counts are for.
+     *
+     * @param auth
+     *            user the view was shown to
+     * @param key
+     *            view and whose view of its jobs to count
+     * @return job status counts for the view, or null if the user's view of the jobs has changed
+     */
+    protected JobStatusCount countAs(Authentication auth, Key key) {
+
+        SecurityContext previous = ACL.impersonate(auth);
+        try {
+            if (!statusCache.keyFor(key.view).equals(key)) {
+                return null;
+            }
+            return statusCache.countFor(key.view);
+        }
+        finally {
+            SecurityContextHolder.setContext(previous);
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final JobStatusCount count;
+        private final long taken;
+
+        Snapshot(JobStatusCount count, long taken) {
+            this.count = count;
+            this.taken = taken;
+        }
+    }
+
+    private static final class Subscription {
+
+        private final View view;
+        private final Authentication auth;
+        private volatile long lastUsed;
+
+        Subscription(View view, Authentication auth) {
+            this.view = view;
+            this.auth = auth;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.TransientViewActionFactory;
+import hudson.model.View;
+import hudson.model.ViewGroup;
+import hudson.views.ViewsTabBar;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.json.util.JSONUtils;
+
+import org.jenkinsci.plugins.customviewtabs.CustomViewsTabBar.CustomViewsTabBarDescriptor;
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.CountMode;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves the labels, colours and job counts for all the tabs in a view's tab bar as JSON, so that
+ * the browser can fill them in after the page has loaded and wallboards can poll them. Available at
+ * {@code .../view/name/customViewTabs/tabs}. When not every view has a tab, the views that do are
+ * named with {@code view} parameters, and {@code .../customViewTabs/more} serves the rest for the
+ * "more" menu.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TabStatusAction implements Action {
+
+    public static final String URL_NAME = "customViewTabs";
+
+    private final View view;
+
+    public TabStatusAction(View view) {
+        this.view = view;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    /**
+     * Labels, colours and job counts for every view alongside this one, in tab bar order. The
+     * response carries an ETag made from the job status and configuration versions, so a client
+     * polling for changes gets a 304 without anything being counted. If there are {@code view}
+     * parameters, only those views are included. Views that couldn't be counted within the time
+     * budget are marked as pending and the response has no ETag, so the client asks again.
+     *
+     * @param req
+     *            request
+     * @param rsp
+     *            response
+     * @throws IOException
+     *             if the response can't be written
+     */
+    public void doTabs(StaplerRequest req, StaplerResponse rsp) throws IOException {
+
+        ViewGroup owner = view.getOwner();
+        ViewsTabBar tabBar = owner.getViewsTabBar();
+
+        if (!(tabBar instanceof CustomViewsTabBar)) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        CustomViewsTabBar customTabBar = (CustomViewsTabBar) tabBar;
+        CustomViewsTabBarDescriptor d = customTabBar.getDescriptor();
+        TabStatusCache statusCache = d.getStatusCache();
+
+        // Taken before counting, so a change part way through makes the next poll count again. The
+        // configuration is read after its version, as a newer one is published before the version
+        // changes.
+        String[] names = req.getParameterValues("view");
+        long configVersion = d.getConfigVersion();
+        TabBarConfig config = d.getConfig();
+        String etag = etag(d.getSnapshots().getVersion(), d.getTrendPeriod(config), configVersion,
+                statusCache.visibilityKey() + ((names == null) ? "" : Arrays.toString(names)));
+
+        rsp.setHeader("Cache-Control", "private, no-cache");
+
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if ((ifNoneMatch != null) && ifNoneMatch.contains(etag)) {
+            rsp.setHeader("ETag", etag);
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        List<View> views = viewsNamed(owner.getViews(), names, true);
+        List<JobStatusCount> counts = customTabBar.getAllCounts(views);
+
+        // Views still being counted don't change the version when they finish, so don't let the
+        // client cache a response without them
+        if (isShowable(config, counts)) {
+            rsp.setHeader("ETag", etag);
+        }
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        writeTabs(rsp.getWriter(), customTabBar, config, views, counts);
+    }
+
+    /**
+     * Labels and colours for the views that don't have a tab, named by the {@code view}
+     * parameters of the views that do. Only counted when the "more" menu is opened.
+     *
+     * @param req
+     *            request
+     * @param rsp
+     *            response
+     * @throws IOException
+     *             if the response can't be written
+     */
+    public void doMore(StaplerRequest req, StaplerResponse rsp) throws IOException {
+
+        ViewGroup owner = view.getOwner();
+        ViewsTabBar tabBar = owner.getViewsTabBar();
+
+        if (!(tabBar instanceof CustomViewsTabBar)) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        CustomViewsTabBar customTabBar = (CustomViewsTabBar) tabBar;
+        TabBarConfig config = customTabBar.getDescriptor().getConfig();
+
+        String[] shown = req.getParameterValues("view");
+        List<View> views = viewsNamed(owner.getViews(), (shown == null) ? new String[0] : shown, false);
+        List<JobStatusCount> counts = customTabBar.getAllCounts(views);
+
+        rsp.setHeader("Cache-Control", "private, no-cache");
+        rsp.setContentType("application/json;charset=UTF-8");
+        writeMenu(rsp.getWriter(), customTabBar, config, views, counts);
+    }
+
+    /**
+     * @param views
+     *            views in the tab bar
+     * @param names
+     *            view names, or null for every view
+     * @param named
+     *            true for the views with the names, false for the views without them
+     * @return matching views in tab bar order
+     */
+    static List<View> viewsNamed(Collection<View> views, String[] names, boolean named) {
+
+        if (names == null) {
+            return new ArrayList<View>(views);
+        }
+
+        Set<String> nameSet = new HashSet<String>(Arrays.asList(names));
+        List<View> matching = new ArrayList<View>();
+
+        for (View v : views) {
+            if (nameSet.contains(v.getViewName()) == named) {
+                matching.add(v);
+            }
+        }
+
+        return matching;
+    }
+
+    static String etag(long statusVersion, long trendPeriod, long configVersion, String visibility) {
+        return "\"" + Long.toString(statusVersion, 36) + '-' + Long.toString(trendPeriod, 36) + '-'
+                + Long.toString(configVersion, 36) + '-' + Integer.toHexString(visibility.hashCode()) + "\"";
+    }
+
+    /**
+     * Write the tabs as JSON straight to the response, without building a JSON object first.
+     *
+     * @param out
+     *            where to write
+     * @param tabBar
+     *            tab bar for the labels and colours
+     * @param config
+     *            configuration to write every tab with
+     * @param views
+     *            views in the tab bar
+     * @param counts
+     *            job counts for each view, in the same order, or null for views still being counted
+     */
+    static void writeTabs(PrintWriter out, CustomViewsTabBar tabBar, TabBarConfig config, List<View> views,
+            List<JobStatusCount> counts) {
+
+        // Otherwise the counts only go as far as the tabs need them
+        boolean complete = config.getCountMode() == CountMode.FULL;
+
+        out.write("{\"complete\":");
+        out.write(complete ? "true" : "false");
+        if (!isShowable(config, counts)) {
+            out.write(",\"pending\":true");
+        }
+        out.write(",\"tabs\":[");
+
+        for (int i = 0; i < views.size(); i++) {
+
+            View v = views.get(i);
+            JobStatusCount count = counts.get(i);
+            TabDisplayMetaData data = tabBar.getTabData(v, count, config);
+
+            if (i > 0) {
+                out.write(',');
+            }
+
+            out.write("{\"name\":");
+            out.write(JSONUtils.quote(v.getViewName()));
+            out.write(",\"activeLabel\":");
+            out.write(JSONUtils.quote(data.getActiveLabel()));
+            out.write(",\"inactiveLabel\":");
+            out.write(JSONUtils.quote(data.getInactiveLabel()));
+            out.write(",\"colour\":");
+            out.write(JSONUtils.quote(data.getColour()));
+            if (!config.canShow(count)) {
+                out.write(",\"pending\":true");
+            }
+            else {
+                writeCount(out, "total", count.total());
+                writeCount(out, "failed", count.failed());
+                writeCount(out, "unstable", count.unstable());
+                writeCount(out, "disabled", count.disabled());
+                writeCount(out, "successful", count.successful());
+            }
+            out.write('}');
+        }
+
+        out.write("]}");
+        out.flush();
+    }
+
+    /**
+     * Write the views for the "more" menu as JSON, with just what a menu entry needs.
+     *
+     * @param out
+     *            where to write
+     * @param tabBar
+     *            tab bar for the labels and colours
+     * @param config
+     *            configuration to write every entry with
+     * @param views
+     *            views without a tab
+     * @param counts
+     *            job counts for each view, in the same order
+     */
+    static void writeMenu(PrintWriter out, CustomViewsTabBar tabBar, TabBarConfig config, List<View> views,
+            List<JobStatusCount> counts) {
+
+        out.write("{\"views\":[");
+
+        for (int i = 0; i < views.size(); i++) {
+
+            View v = views.get(i);
+            TabDisplayMetaData data = tabBar.getTabData(v, counts.get(i), config);
+
+            if (i > 0) {
+                out.write(',');
+            }
+
+            out.write("{\"name\":");
+            out.write(JSONUtils.quote(v.getViewName()));
+            out.write(",\"url\":");
+            out.write(JSONUtils.quote(v.getUrl()));
+            out.write(",\"label\":");
+            out.write(JSONUtils.quote(data.getInactiveLabel()));
+            out.write(",\"colour\":");
+            out.write(JSONUtils.quote(data.getColour()));
+            out.write('}');
+        }
+
+        out.write("]}");
+        out.flush();
+    }
+
+    /**
+     * @return whether every view was counted as far as the configuration needs
+     */
+    private static boolean isShowable(TabBarConfig config, List<JobStatusCount> counts) {
+
+        for (JobStatusCount count : counts) {
+            if (!config.canShow(count)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void writeCount(PrintWriter out, String name, int count) {
+        out.write(",\"");
+        out.write(name);
+        out.write("\":");
+        out.write(Integer.toString(count));
+    }
+
+    /**
+     * Adds the action to every view.
+     */
+    @Extension
+    public static final class Factory extends TransientViewActionFactory {
+
+        @Override
+        public List<Action> createFor(View v) {
+            return Collections.<Action> singletonList(new TabStatusAction(v));
+        }
+    }
+}
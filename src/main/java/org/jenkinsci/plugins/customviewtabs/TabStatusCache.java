@@ -0,0 +1,683 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.AllView;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.ListView;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+import hudson.plugins.nested_view.NestedView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.customviewtabs.ViewItemExtractor.ItemVisitor;
+
+/**
+ * Remembers the job status counts for each view so that rendering the tab bar is a lookup rather
+ * than a walk over every job in every view. Entries are dropped by {@link TabStatusListener} when a
+ * build starts or finishes, or when jobs and views change, and are recounted on the next request.
+ * <p>
+ * The items each view was counted from are indexed as they are counted, so a build only drops the
+ * views that counted its job without asking every view whether it contains the job. Only views
+ * whose items can change with the status of a job, such as list views with job filters, are asked.
+ * A count that is still being made when one of its items changes is not kept, while changes to
+ * other items leave it alone.
+ * <p>
+ * {@link View#getItems()} is filtered by permission, so counts are kept per view and per user, or
+ * per view and per {@link VisibilityFingerprints fingerprint} when users who can read the same items
+ * can share them.
+ * <p>
+ * A {@link NestedView} is counted from the cached results of its children rather than by walking
+ * every view below it again. To count a job that appears in more than one child only once, the
+ * children's results keep the items they were counted from, and each item seen again is taken back
+ * off the total. A nested view is dropped along with any child that contains a changed item.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TabStatusCache {
+
+    /**
+     * How much counting the configuration needs.
+     */
+    public enum CountMode {
+
+        /** Labels and colour don't depend on job status, so views are never looked at. */
+        NONE,
+
+        /** Only the colour depends on job status, so counting can stop at the first failure. */
+        UNTIL_FAILURE,
+
+        /** Labels show counts, so every job is counted. */
+        FULL
+    }
+
+    private static final JobStatusCount NO_JOBS = noJobs();
+
+    private volatile CountMode mode = CountMode.FULL;
+
+    private final ConcurrentMap<Key, ViewResult> counts = new ConcurrentHashMap<Key, ViewResult>();
+    private final AtomicLong version = new AtomicLong();
+
+    /** Keys counted for each view, to drop them all when the view is affected by a change. */
+    private final ConcurrentMap<View, Set<Key>> viewKeys = new ConcurrentHashMap<View, Set<Key>>();
+
+    /** Views each item was counted in. */
+    private final ConcurrentMap<Item, Set<View>> itemViews = new ConcurrentHashMap<Item, Set<View>>();
+
+    /** Nested views counted from each child view. */
+    private final ConcurrentMap<View, Set<View>> parentViews = new ConcurrentHashMap<View, Set<View>>();
+
+    /** Views whose items may change with job status, which have to be asked about each change. */
+    private final Set<View> filteredViews = newConcurrentSet();
+
+    /** Counts being made right now. */
+    private final Set<Counting> counting = newConcurrentSet();
+
+    /** Views that have been counted as the child of a nested view, which keep their items. */
+    private final Set<View> nestedChildren = Collections.synchronizedSet(Collections
+            .newSetFromMap(new WeakHashMap<View, Boolean>()));
+    private final AtomicLong structureVersion = new AtomicLong();
+
+    private final ViewItemExtractor extractor;
+    private final TabMetrics metrics;
+    private final JobResultIndex results;
+    private final ItemSubtotals subtotals;
+    private final VisibilityFingerprints fingerprints;
+    private final StatusHistory history;
+
+    public TabStatusCache(ViewItemExtractor extractor) {
+        this(extractor, new TabMetrics(), null, null, null, null);
+    }
+
+    /**
+     * @param extractor
+     *            extractor for the items in a view
+     * @param metrics
+     *            where to record hits and counting times
+     * @param results
+     *            index of job status, or null to look at each job's last build
+     * @param subtotals
+     *            cached totals for items holding jobs, or null to count their jobs every time
+     * @param fingerprints
+     *            fingerprints for sharing counts between users, or null to count for each user
+     * @param history
+     *            history to add full counts to, or null to keep none
+     */
+    public TabStatusCache(ViewItemExtractor extractor, TabMetrics metrics, JobResultIndex results,
+            ItemSubtotals subtotals, VisibilityFingerprints fingerprints, StatusHistory history) {
+        this.extractor = extractor;
+        this.metrics = metrics;
+        this.results = results;
+        this.subtotals = subtotals;
+        this.fingerprints = fingerprints;
+        this.history = history;
+    }
+
+    /**
+     * Get the job status counts for the view as seen by the current user, counting the jobs only if
+     * there is no cached result.
+     *
+     * @param v
+     *            view to count
+     * @return job status counts for the view
+     */
+    public JobStatusCount countFor(View v) {
+
+        if (mode == CountMode.NONE) {
+            return NO_JOBS;
+        }
+
+        return resultFor(keyFor(v), false, Collections.newSetFromMap(new IdentityHashMap<View, Boolean>()), 0).count;
+    }
+
+    /**
+     * Get the cached job status counts for the view as seen by the current user, without counting.
+     *
+     * @param v
+     *            view
+     * @return job status counts, or null if the view would have to be counted
+     */
+    public JobStatusCount cachedCountFor(View v) {
+
+        if (mode == CountMode.NONE) {
+            return NO_JOBS;
+        }
+
+        ViewResult result = counts.get(keyFor(v));
+
+        return (result == null) ? null : result.count;
+    }
+
+    Key keyFor(View v) {
+        return new Key(v, visibilityKey(v));
+    }
+
+    /**
+     * @param key
+     *            view and user to count for
+     * @param withItems
+     *            whether the result must keep the items it was counted from
+     * @param path
+     *            nested views being counted above this one
+     * @param depth
+     *            how deeply this view is nested
+     */
+    private ViewResult resultFor(Key key, boolean withItems, Set<View> path, int depth) {
+
+        ViewResult result = counts.get(key);
+        if ((result != null) && (!withItems || (result.items != null))) {
+            metrics.recordHit(key.view);
+            return result;
+        }
+
+        return count(key, withItems, path, depth);
+    }
+
+    private ViewResult count(Key key, boolean withItems, Set<View> path, int depth) {
+
+        // Registered before anything is looked at, so that any change from here on is seen
+        Counting inFlight = new Counting(key.view);
+        counting.add(inFlight);
+
+        try {
+            return count(key, withItems, path, depth, inFlight);
+        }
+        finally {
+            counting.remove(inFlight);
+        }
+    }
+
+    private ViewResult count(Key key, boolean withItems, Set<View> path, int depth, Counting inFlight) {
+
+        long start = System.nanoTime();
+
+        setOf(viewKeys, key.view).add(key);
+        if (!(key.view instanceof NestedView) && !hasFixedItems(key.view)) {
+            filteredViews.add(key.view);
+        }
+
+        ViewResult result;
+        if (key.view instanceof NestedView) {
+            result = countChildren(key, path, depth);
+        }
+        else if (withItems || nestedChildren.contains(key.view)) {
+            result = countWithItems(key.view);
+        }
+        else {
+            result = new ViewResult(new JobStatusCount(key.view, new IndexingExtractor(key.view),
+                    mode == CountMode.UNTIL_FAILURE, results, subtotals), null, null);
+        }
+
+        JobStatusCount jobCount = result.count;
+        long elapsed = System.nanoTime() - start;
+        metrics.recordCount(key.view, jobCount.extractNanos(), elapsed - jobCount.extractNanos(), jobCount.total());
+
+        // Counts that stopped at the first failure would make a false trend
+        if ((history != null) && (mode == CountMode.FULL)) {
+            jobCount.setHistory(history.record(key, jobCount, System.currentTimeMillis()));
+        }
+
+        counts.put(key, result);
+
+        // One of the items counted changed while we were counting, so the result may be stale
+        if (inFlight.stale) {
+            counts.remove(key, result);
+        }
+
+        return result;
+    }
+
+    private ViewResult countWithItems(final View v) {
+
+        final List<TopLevelItem> items = new ArrayList<TopLevelItem>();
+
+        long extractNanos = extractor.visitItemsInView(v, new ItemVisitor() {
+            public boolean visit(TopLevelItem item) {
+                index(item, v);
+                items.add(item);
+                return true;
+            }
+        });
+
+        JobStatusCount[] contributions = new JobStatusCount[items.size()];
+
+        return new ViewResult(new JobStatusCount(items, results, subtotals, extractNanos, contributions),
+                items.toArray(new TopLevelItem[items.size()]), contributions);
+    }
+
+    /**
+     * Add up the results for the children of a nested view. Only the colour needs anything when
+     * counting stops at the first failure, and adding children together can't change whether there
+     * are any failed, unstable or disabled jobs, so shared jobs are only taken out for full counts.
+     * A shared job is taken out as the child counted it, since its status may have changed since.
+     */
+    private ViewResult countChildren(Key key, Set<View> path, int depth) {
+
+        NestedView parent = (NestedView) key.view;
+        boolean full = (mode == CountMode.FULL);
+
+        JobStatusCount sum = new JobStatusCount(null);
+        Map<TopLevelItem, JobStatusCount> seen = full ? new IdentityHashMap<TopLevelItem, JobStatusCount>() : null;
+
+        if (depth >= ViewItemExtractor.MAX_DEPTH) {
+            return new ViewResult(sum, new TopLevelItem[0], new JobStatusCount[0]);
+        }
+
+        path.add(parent);
+        try {
+            for (View child : parent.getViews()) {
+
+                if (path.contains(child)) {
+                    // Round a cycle, the views on the path are already being counted
+                    continue;
+                }
+
+                nestedChildren.add(child);
+                setOf(parentViews, child).add(parent);
+
+                ViewResult childResult = resultFor(keyFor(child), full, path, depth + 1);
+                sum.add(childResult.count);
+
+                if (full) {
+                    for (int i = 0; i < childResult.items.length; i++) {
+
+                        TopLevelItem item = childResult.items[i];
+
+                        if (seen.containsKey(item)) {
+                            sum.subtract(childResult.contributions[i]);
+                        }
+                        else {
+                            seen.put(item, childResult.contributions[i]);
+                        }
+                    }
+                }
+                else if (sum.hasFailures()) {
+                    break;
+                }
+            }
+        }
+        finally {
+            path.remove(parent);
+        }
+
+        if (!full) {
+            sum.countedAs(CountMode.UNTIL_FAILURE);
+            return new ViewResult(sum, null, null);
+        }
+
+        TopLevelItem[] items = new TopLevelItem[seen.size()];
+        JobStatusCount[] contributions = new JobStatusCount[seen.size()];
+
+        int i = 0;
+        for (Map.Entry<TopLevelItem, JobStatusCount> entry : seen.entrySet()) {
+            items[i] = entry.getKey();
+            contributions[i] = entry.getValue();
+            i++;
+        }
+
+        return new ViewResult(sum, items, contributions);
+    }
+
+    /**
+     * Drop the counts for every view that contains the item, or any of the items it belongs to.
+     *
+     * @param item
+     *            item that has changed status
+     */
+    public void invalidate(Item item) {
+
+        if (mode == CountMode.NONE) {
+            // Nothing is counted, so job status changes don't affect anything
+            return;
+        }
+
+        version.incrementAndGet();
+
+        Set<View> dropped = new HashSet<View>();
+
+        for (Item i = item; i != null; i = parentOf(i)) {
+
+            Set<View> views = itemViews.remove(i);
+            if (views != null) {
+                for (View v : views) {
+                    drop(v, dropped);
+                }
+            }
+        }
+
+        for (View v : filteredViews) {
+            if (!dropped.contains(v) && containsItemOrParent(v, item)) {
+                drop(v, dropped);
+            }
+        }
+    }
+
+    /**
+     * Drop the counts for a view, for everyone, and for the nested views counted from it.
+     *
+     * @param v
+     *            view that has changed
+     */
+    public void invalidate(View v) {
+        version.incrementAndGet();
+        drop(v, new HashSet<View>());
+    }
+
+    /**
+     * Drop the counts made for one user only, for example when their groups may have changed.
+     * Counts shared with other users are left alone.
+     *
+     * @param userName
+     *            name of the user
+     */
+    public void invalidateUser(String userName) {
+
+        String userKey = (fingerprints == null) ? userName : fingerprints.userKeyFor(userName);
+
+        version.incrementAndGet();
+
+        for (Iterator<Key> keys = counts.keySet().iterator(); keys.hasNext();) {
+            if (keys.next().visibility.equals(userKey)) {
+                keys.remove();
+            }
+        }
+    }
+
+    private void drop(View v, Set<View> dropped) {
+
+        if (!dropped.add(v)) {
+            return;
+        }
+
+        // Marked before the counts go, so a count finishing now either sees the mark or is dropped
+        for (Counting inFlight : counting) {
+            if (inFlight.view == v) {
+                inFlight.stale = true;
+            }
+        }
+
+        Set<Key> keys = viewKeys.remove(v);
+        if (keys != null) {
+            for (Key key : keys) {
+                counts.remove(key);
+            }
+        }
+
+        Set<View> parents = parentViews.get(v);
+        if (parents != null) {
+            for (View parent : parents) {
+                drop(parent, dropped);
+            }
+        }
+    }
+
+    /**
+     * Drop all cached counts. Used when a change could affect the membership of any view.
+     */
+    public void invalidateAll() {
+
+        structureVersion.incrementAndGet();
+        version.incrementAndGet();
+
+        for (Counting inFlight : counting) {
+            inFlight.stale = true;
+        }
+
+        counts.clear();
+        viewKeys.clear();
+        itemViews.clear();
+        parentViews.clear();
+        filteredViews.clear();
+    }
+
+    /**
+     * Change how much counting is done, dropping all the cached counts.
+     *
+     * @param mode
+     *            count mode required by the configuration
+     */
+    public void setCountMode(CountMode mode) {
+        this.mode = mode;
+        invalidateAll();
+    }
+
+    public CountMode getCountMode() {
+        return mode;
+    }
+
+    /**
+     * A number that changes whenever any cached count is dropped.
+     *
+     * @return status version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * A number that changes whenever everything is dropped, which is when views or items may have
+     * been added, removed or renamed.
+     *
+     * @return structure version
+     */
+    public long getStructureVersion() {
+        return structureVersion.get();
+    }
+
+    public int size() {
+        return counts.size();
+    }
+
+    /**
+     * Identify whose view of the jobs the counts are for.
+     *
+     * @return key for the current user
+     */
+    public String visibilityKey() {
+        return Jenkins.getAuthentication().getName();
+    }
+
+    /**
+     * Identify whose view of the jobs in a particular view the counts are for.
+     *
+     * @param v
+     *            view to be counted
+     * @return key shared by users who see the same jobs in the view
+     */
+    protected String visibilityKey(View v) {
+        return (fingerprints == null) ? visibilityKey() : fingerprints.keyFor(v);
+    }
+
+    /**
+     * Whether the items in a view depend only on its configuration, and not on the status of any
+     * job, so that it is only affected by changes to the items it was counted from.
+     */
+    static boolean hasFixedItems(View v) {
+
+        if (v instanceof AllView) {
+            return true;
+        }
+
+        if (v instanceof ListView) {
+            // Job filters and the enabled or disabled filter can pick jobs by their status
+            List<?> filters = ((ListView) v).getJobFilters();
+            return ((filters == null) || filters.isEmpty()) && (((ListView) v).getStatusFilter() == null);
+        }
+
+        return false;
+    }
+
+    private void index(TopLevelItem item, View v) {
+        setOf(itemViews, item).add(v);
+    }
+
+    private static <K, V> Set<V> setOf(ConcurrentMap<K, Set<V>> map, K key) {
+
+        Set<V> set = map.get(key);
+        if (set == null) {
+            set = newConcurrentSet();
+            Set<V> existing = map.putIfAbsent(key, set);
+            if (existing != null) {
+                set = existing;
+            }
+        }
+
+        return set;
+    }
+
+    private static <T> Set<T> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+    }
+
+    private static JobStatusCount noJobs() {
+
+        JobStatusCount none = new JobStatusCount(null);
+        none.countedAs(CountMode.NONE);
+
+        return none;
+    }
+
+    private boolean containsItemOrParent(View v, Item item) {
+
+        for (Item i = item; i != null; i = parentOf(i)) {
+
+            if ((i instanceof TopLevelItem) && contains(v, (TopLevelItem) i)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean contains(View v, TopLevelItem item) {
+
+        if (v instanceof NestedView) {
+
+            for (View child : ((NestedView) v).getViews()) {
+                if (contains(child, item)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        return v.contains(item);
+    }
+
+    private Item parentOf(Item item) {
+
+        ItemGroup<? extends Item> parent = item.getParent();
+
+        return (parent instanceof Item) ? (Item) parent : null;
+    }
+
+    /**
+     * Passes the items of a view on to the counter, indexing them first.
+     */
+    private final class IndexingExtractor extends ViewItemExtractor {
+
+        private final View view;
+
+        IndexingExtractor(View view) {
+            this.view = view;
+        }
+
+        @Override
+        public long visitItemsInView(View v, final ItemVisitor visitor) {
+            return extractor.visitItemsInView(v, new ItemVisitor() {
+                public boolean visit(TopLevelItem item) {
+                    index(item, view);
+                    return visitor.visit(item);
+                }
+            });
+        }
+    }
+
+    /**
+     * A count being made, marked stale if one of its items changes before it is finished.
+     */
+    private static final class Counting {
+
+        private final View view;
+        private volatile boolean stale;
+
+        Counting(View view) {
+            this.view = view;
+        }
+    }
+
+    /**
+     * The count for a view, and the items it was counted from if a nested view needs them.
+     */
+    private static final class ViewResult {
+
+        private final JobStatusCount count;
+        private final TopLevelItem[] items;
+
+        /** What each of the items added to the count. */
+        private final JobStatusCount[] contributions;
+
+        ViewResult(JobStatusCount count, TopLevelItem[] items, JobStatusCount[] contributions) {
+            this.count = count;
+            this.items = items;
+            this.contributions = contributions;
+        }
+    }
+
+    static final class Key {
+
+        final View view;
+        final String visibility;
+
+        Key(View view, String visibility) {
+            this.view = view;
+            this.visibility = visibility;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+
+            return (view == other.view) && visibility.equals(other.visibility);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * System.identityHashCode(view)) + visibility.hashCode();
+        }
+    }
+}
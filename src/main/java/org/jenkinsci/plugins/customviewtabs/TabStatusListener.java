@@ -0,0 +1,287 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Items;
+import hudson.model.Job;
+import hudson.model.MyViewsProperty;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.User;
+import hudson.model.View;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.io.IOException;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.customviewtabs.CustomViewsTabBar.CustomViewsTabBarDescriptor;
+
+/**
+ * Keeps the {@link TabStatusCache}, {@link JobResultIndex}, {@link ItemSubtotals} and
+ * {@link VisibilityFingerprints} up to date as builds run and jobs and views change.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public final class TabStatusListener {
+
+    private TabStatusListener() {
+    }
+
+    private static CustomViewsTabBarDescriptor descriptor() {
+
+        Jenkins jenkins = Jenkins.getInstance();
+
+        return (jenkins == null) ? null : jenkins.getDescriptorByType(CustomViewsTabBarDescriptor.class);
+    }
+
+    /**
+     * Record the build's status before dropping the counts, so that recounting sees it.
+     */
+    @SuppressWarnings("rawtypes")
+    static void built(Run r) {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        if (d != null) {
+            d.getResultIndex().record(r);
+        }
+
+        changed(r.getParent());
+    }
+
+    /**
+     * Drop the counts only if the deleted build was the job's latest, since older builds don't
+     * affect its status.
+     */
+    @SuppressWarnings("rawtypes")
+    static void deleted(Run r) {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        if ((d != null) && d.getResultIndex().deleted(r)) {
+            changed(r.getParent());
+        }
+    }
+
+    static void forget(String fullName) {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        if (d != null) {
+            d.getResultIndex().forget(fullName);
+            d.getFingerprints().forgetSaved(fullName);
+        }
+    }
+
+    static void changed(Item item) {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        if (d != null) {
+            d.getItemSubtotals().invalidate(item);
+            d.getStatusCache().invalidate(item);
+        }
+    }
+
+    /**
+     * Something has changed that could affect the membership of any view, or who can see what.
+     */
+    static void changedAll() {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        if (d != null) {
+            d.getFingerprints().invalidateAll();
+            d.getStatusCache().invalidateAll();
+        }
+    }
+
+    /**
+     * The views of Jenkins or a folder may have changed.
+     */
+    static void viewsChanged() {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        if (d != null) {
+            d.getStatusCache().invalidateAll();
+        }
+    }
+
+    /**
+     * Items have been added, removed or moved, so any folder's subtotal may be wrong.
+     */
+    static void structureChanged() {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        if (d != null) {
+            d.getFingerprints().invalidateAll();
+            d.getItemSubtotals().invalidateAll();
+            d.getStatusCache().invalidateAll();
+        }
+    }
+
+    /**
+     * A user has been saved, which happens when they log in, change their settings or change one of
+     * their own views. Only that user's counts and views are affected.
+     */
+    static void userChanged(User user) {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        if (d == null) {
+            return;
+        }
+
+        d.getFingerprints().forget(user.getId());
+        d.getStatusCache().invalidateUser(user.getId());
+
+        MyViewsProperty myViews = user.getProperty(MyViewsProperty.class);
+        if (myViews != null) {
+            for (View v : myViews.getViews()) {
+                d.getStatusCache().invalidate(v);
+            }
+        }
+    }
+
+    /**
+     * Jenkins or an item has been saved, which only changes who can read which items if the
+     * settings that decide it have changed.
+     *
+     * @param name
+     *            full name of the item, or an empty string for Jenkins itself
+     * @param settings
+     *            settings that decide who can read items, or null if they couldn't be read
+     */
+    static void permissionsSaved(String name, String settings) {
+
+        CustomViewsTabBarDescriptor d = descriptor();
+        if (d != null) {
+            d.getFingerprints().saved(name, settings);
+        }
+    }
+
+    private static String contentsOf(XmlFile file) {
+
+        try {
+            return file.asString();
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Job status changes when a build starts (building jobs are not counted), finishes or is deleted
+ * while it is the latest.
+     */
+    @Extension
+    @SuppressWarnings("rawtypes")
+    public static final class RunListenerImpl extends RunListener<Run> {
+
+        @Override
+        public void onStarted(Run r, TaskListener listener) {
+            built(r);
+        }
+
+        @Override
+        public void onCompleted(Run r, TaskListener listener) {
+            built(r);
+        }
+
+        @Override
+        public void onDeleted(Run r) {
+            deleted(r);
+        }
+    }
+
+    /**
+     * Creating, copying, deleting, renaming or moving an item can change the membership of any view.
+     */
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onCreated(Item item) {
+            structureChanged();
+        }
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            structureChanged();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            forget(item.getFullName());
+            structureChanged();
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            structureChanged();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            forget(oldFullName);
+            structureChanged();
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            changed(item);
+        }
+    }
+
+    /**
+     * Jobs are saved when they are enabled or disabled, and for many other reasons, including as
+     * they build. Views are saved through their owner, which is Jenkins itself, a user or a folder.
+     */
+    @Extension
+    public static final class SaveableListenerImpl extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+
+            if (o instanceof Job) {
+                // Permissions can be set in the job's own properties
+                Job<?, ?> job = (Job<?, ?>) o;
+                permissionsSaved(job.getFullName(), Items.XSTREAM2.toXML(job.getAllProperties()));
+                changed(job);
+            }
+            else if ((o instanceof Item) && (o instanceof ItemGroup)) {
+                // A folder's own settings, such as its views or who can read its items, have changed
+                changed((Item) o);
+                permissionsSaved(((Item) o).getFullName(), contentsOf(file));
+                viewsChanged();
+            }
+            else if (o instanceof User) {
+                userChanged((User) o);
+            }
+            else if (o instanceof Jenkins) {
+                Jenkins jenkins = (Jenkins) o;
+                permissionsSaved("", Jenkins.XSTREAM2.toXML(jenkins.getAuthorizationStrategy())
+                        + Jenkins.XSTREAM2.toXML(jenkins.getSecurityRealm()));
+                viewsChanged();
+            }
+            else if (o instanceof ItemGroup) {
+                changedAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.View;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.Key;
+
+/**
+ * Limits how long a page waits for its tabs to be counted. Views are counted on the tab data pool,
+ * and any that aren't done within the budget are shown with just their name in the default colour.
+ * Their counting carries on in the background and lands in the cache for the next page.
+ * <p>
+ * A view whose counting goes over the budget several times in a row is no longer counted while a
+ * page waits. It shows the last count it finished in the background, or its plain name if it has
+ * none yet, and is recounted in the background instead. It goes back to being counted normally as
+ * soon as a background count comes in under the budget.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TabTimeBudget {
+
+    /** Slow counts in a row after which a view is only counted in the background. */
+    static final int STRIKES = 3;
+
+    private final TabStatusCache statusCache;
+    private final TabSnapshots snapshots;
+
+    private volatile long budgetNanos = 0;
+
+    private final Map<View, Breaker> breakers = new WeakHashMap<View, Breaker>();
+    private final ConcurrentMap<Key, Future<JobStatusCount>> pending =
+            new ConcurrentHashMap<Key, Future<JobStatusCount>>();
+
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * @param statusCache
+     *            cache the counts are kept in
+     * @param snapshots
+     *            snapshots the counts are taken from
+     */
+    public TabTimeBudget(TabStatusCache statusCache, TabSnapshots snapshots) {
+        this.statusCache = statusCache;
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Set how long a page waits for counting, forgetting which views were slow.
+     *
+     * @param millis
+     *            budget in milliseconds, or 0 to always wait
+     */
+    public void setBudget(long millis) {
+
+        budgetNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+
+        synchronized (breakers) {
+            breakers.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return budgetNanos > 0;
+    }
+
+    /**
+     * Count the views that have no cached counts, waiting no longer than the budget. The views are
+     * counted in parallel, so the wait is the budget for all of them together.
+     *
+     * @param views
+     *            views in the tab bar
+     * @param uncounted
+     *            positions of the views that need counting
+     * @param counts
+     *            job counts for each view, filled in at the uncounted positions, or left null for
+     *            views that weren't counted in time
+     */
+    void countWithin(List<View> views, List<Integer> uncounted, List<JobStatusCount> counts) {
+
+        long deadline = System.nanoTime() + budgetNanos;
+
+        List<Integer> waiting = new ArrayList<Integer>(uncounted.size());
+        List<Future<JobStatusCount>> futures = new ArrayList<Future<JobStatusCount>>(uncounted.size());
+
+        for (int i : uncounted) {
+
+            View v = views.get(i);
+            Key key = statusCache.keyFor(v);
+            Future<JobStatusCount> future = start(v, key);
+
+            if (isTripped(v)) {
+                // Known to be slow, so don't hold up the page for it
+                JobStatusCount last = lastCountFor(key);
+                if (last == null) {
+                    fallbacks.incrementAndGet();
+                }
+                counts.set(i, last);
+            }
+            else {
+                waiting.add(i);
+                futures.add(future);
+            }
+        }
+
+        for (int f = 0; f < futures.size(); f++) {
+
+            int i = waiting.get(f);
+
+            try {
+                counts.set(i, futures.get(f).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+            catch (TimeoutException e) {
+                fallbacks.incrementAndGet();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Start counting the view in the background, unless it is already being counted for the same
+     * users.
+     */
+    private Future<JobStatusCount> start(final View v, final Key key) {
+
+        Future<JobStatusCount> existing = pending.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        final FutureTask<JobStatusCount> task = new FutureTask<JobStatusCount>(new Callable<JobStatusCount>() {
+            public JobStatusCount call() {
+
+                // Counted by another page since, so there is nothing to time
+                JobStatusCount cached = snapshots.cachedCountFor(v);
+                if (cached != null) {
+                    return cached;
+                }
+
+                long start = System.nanoTime();
+                JobStatusCount count = snapshots.countFor(v);
+                record(key, count, System.nanoTime() - start);
+
+                return count;
+            }
+        });
+
+        existing = pending.putIfAbsent(key, task);
+        if (existing != null) {
+            return existing;
+        }
+
+        submit(new Callable<Void>() {
+            public Void call() {
+                try {
+                    task.run();
+                }
+                finally {
+                    pending.remove(key, task);
+                }
+                return null;
+            }
+        });
+
+        return task;
+    }
+
+    /**
+     * Run the counting in the background as the current user.
+     *
+     * @param task
+     *            counting to do
+     */
+    protected void submit(Callable<Void> task) {
+        TabDataPool.submit(task);
+    }
+
+    /**
+     * Record how long the view took to count, tripping or resetting its breaker.
+     *
+     * @param key
+     *            view and whose view of its jobs was counted
+     * @param count
+     *            job status counts for the view
+     * @param nanos
+     *            time taken
+     */
+    void record(Key key, JobStatusCount count, long nanos) {
+
+        synchronized (breakers) {
+
+            Breaker breaker = breakers.get(key.view);
+
+            if (nanos <= budgetNanos) {
+                if (breaker != null) {
+                    breakers.remove(key.view);
+                }
+                return;
+            }
+
+            if (breaker == null) {
+                breaker = new Breaker();
+                breakers.put(key.view, breaker);
+            }
+
+            breaker.strikes++;
+
+            if (breaker.strikes >= STRIKES) {
+                breaker.lastCounts.put(key.visibility, count);
+            }
+        }
+    }
+
+    /**
+     * @return the last count finished in the background for a view that is too slow to wait for,
+     *         or null if there isn't one
+     */
+    private JobStatusCount lastCountFor(Key key) {
+
+        synchronized (breakers) {
+            Breaker breaker = breakers.get(key.view);
+            return (breaker == null) ? null : breaker.lastCounts.get(key.visibility);
+        }
+    }
+
+    /**
+     * @param v
+     *            view
+     * @return whether the view is too slow to wait for and is only counted in the background
+     */
+    public boolean isTripped(View v) {
+
+        synchronized (breakers) {
+            Breaker breaker = breakers.get(v);
+            return (breaker != null) && (breaker.strikes >= STRIKES);
+        }
+    }
+
+    /**
+     * @return number of tabs shown without counts because counting took too long
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Slow counts in a row for one view, and the last counts finished once it was tripped, by
+     * whose view of the jobs they are for.
+     */
+    private static final class Breaker {
+
+        private int strikes;
+        private final Map<String, JobStatusCount> lastCounts = new HashMap<String, JobStatusCount>(4);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+/**
+ * Generate labels from the active and inactive tab patterns compiled once into
+ * {@link LabelTemplate}s, producing the same labels as {@link StringReplacementLabelGenerator}
+ * without any regex work per label.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class TemplateLabelGenerator implements LabelGenerator {
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(64);
+        }
+    };
+
+    private final LabelTemplate activeTemplate;
+    private final LabelTemplate inactiveTemplate;
+
+    private final NameTransformer names;
+
+    public TemplateLabelGenerator(String patternActiveTab, String patternInactiveTab, NameTransformer names) {
+
+        this.activeTemplate = LabelTemplate.compile(patternActiveTab);
+        this.inactiveTemplate = LabelTemplate.compile(patternInactiveTab);
+
+        this.names = names;
+    }
+
+    public String generateLabel(String displayName, JobStatusCount jobCount, String pattern) {
+        return generateLabel(displayName, jobCount, templateFor(pattern));
+    }
+
+    /**
+     * Render the label for a compiled template.
+     *
+     * @param displayName
+     *            Original view display name
+     * @param jobCount
+     *            job status count data for the view
+     * @param template
+     *            compiled label pattern
+     * @return label text
+     */
+    public String generateLabel(String displayName, JobStatusCount jobCount, LabelTemplate template) {
+
+        String shortName = template.usesShortName() ? names.shortName(displayName) : null;
+        String regexName = template.usesRegexName() ? names.regexName(displayName) : null;
+
+        StringBuilder label = BUILDER.get();
+        label.setLength(0);
+
+        template.render(label, displayName, shortName, regexName, jobCount);
+
+        return label.toString();
+    }
+
+    public LabelTemplate getActiveTemplate() {
+        return activeTemplate;
+    }
+
+    public LabelTemplate getInactiveTemplate() {
+        return inactiveTemplate;
+    }
+
+    private LabelTemplate templateFor(String pattern) {
+
+        if (activeTemplate.getPattern().equals(pattern)) {
+            return activeTemplate;
+        }
+        if (inactiveTemplate.getPattern().equals(pattern)) {
+            return inactiveTemplate;
+        }
+
+        return LabelTemplate.compile(pattern);
+    }
+}
@@ -22,30 +22,132 @@ import hudson.plugins.nested_view.NestedView;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Extract all items from views including nested views.
+ * Extract all items from views including nested views. Items are passed straight to a visitor
+ * rather than copied into a list, and an item that appears in more than one nested view is only
+ * visited once.
  * 
  * @author Alistair Todd ringracer@gmail.com
  */
 public class ViewItemExtractor {
 
+    private static final Logger LOGGER = Logger.getLogger(ViewItemExtractor.class.getName());
+
+    /** Nested views deeper than this are ignored. */
+    static final int MAX_DEPTH = 16;
+
+    /**
+     * Receives each item in a view.
+     */
+    public interface ItemVisitor {
+
+        /**
+         * Visit an item.
+         * 
+         * @param item
+         *            item in the view
+         * @return true to carry on, false to stop visiting items
+         */
+        boolean visit(TopLevelItem item);
+    }
+
     public Collection<TopLevelItem> getItemsInView(View v) {
-        return allItems(Collections.singleton(v), new ArrayList<TopLevelItem>());
+
+        final List<TopLevelItem> items = new ArrayList<TopLevelItem>();
+
+        visitItemsInView(v, new ItemVisitor() {
+            public boolean visit(TopLevelItem item) {
+                items.add(item);
+                return true;
+            }
+        });
+
+        return items;
     }
 
-    private Collection<TopLevelItem> allItems(Collection<View> views, Collection<TopLevelItem> items) {
+    /**
+     * Pass every item in the view, including items in nested views, to the visitor once.
+     * 
+     * @param v
+     *            view
+     * @param visitor
+     *            visitor for the items
+     * @return nanoseconds spent asking the views for their items
+     */
+    public long visitItemsInView(View v, ItemVisitor visitor) {
 
-        for (View v : views) {
+        long[] getItemsNanos = new long[1];
 
-            if (v instanceof NestedView) {
-                allItems(((NestedView) v).getViews(), items);
+        if (v instanceof NestedView) {
+
+            Set<TopLevelItem> seenItems = Collections.newSetFromMap(new IdentityHashMap<TopLevelItem, Boolean>());
+            Set<View> seenViews = Collections.newSetFromMap(new IdentityHashMap<View, Boolean>());
+
+            visit(v, visitor, seenItems, seenViews, 0, getItemsNanos);
+        }
+        else {
+            // A single view can't list the same item twice, so there's nothing to deduplicate
+            visitItems(v, visitor, null, getItemsNanos);
+        }
+
+        return getItemsNanos[0];
+    }
+
+    private boolean visit(View v, ItemVisitor visitor, Set<TopLevelItem> seenItems, Set<View> seenViews, int depth,
+            long[] getItemsNanos) {
+
+        if (!seenViews.add(v)) {
+            // Reached by another route or round a cycle, either way the items have been visited
+            return true;
+        }
+
+        if (!(v instanceof NestedView)) {
+            return visitItems(v, visitor, seenItems, getItemsNanos);
+        }
+
+        if (depth >= MAX_DEPTH) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Ignoring views nested more than " + MAX_DEPTH + " deep in " + v.getViewName());
             }
-            else {
-                items.addAll(v.getItems());
+            return true;
+        }
+
+        for (View child : ((NestedView) v).getViews()) {
+            if (!visit(child, visitor, seenItems, seenViews, depth + 1, getItemsNanos)) {
+                return false;
             }
         }
 
-        return items;
+        return true;
+    }
+
+    private boolean visitItems(View v, ItemVisitor visitor, Set<TopLevelItem> seenItems, long[] getItemsNanos) {
+
+        long start = System.nanoTime();
+        Collection<TopLevelItem> items = v.getItems();
+        getItemsNanos[0] += System.nanoTime() - start;
+        if (items == null) {
+            return true;
+        }
+
+        for (TopLevelItem item : items) {
+
+            if ((seenItems != null) && !seenItems.add(item)) {
+                continue;
+            }
+
+            if (!visitor.visit(item)) {
+                return false;
+            }
+        }
+
+        return true;
     }
+
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.View;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Something kept for each view, found by the view's identity without taking any lock. Views are
+ * held weakly, so deleted views drop out on their own; only adding a view that has not been seen
+ * before, and clearing out those that have gone, changes the map.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+final class ViewMap<V> {
+
+    private final ConcurrentMap<Object, V> values = new ConcurrentHashMap<Object, V>();
+
+    private final ReferenceQueue<View> gone = new ReferenceQueue<View>();
+
+    /**
+     * @param v
+     *            view
+     * @return what is kept for the view, or null if nothing is
+     */
+    V get(View v) {
+        return values.get(new Lookup(v));
+    }
+
+    /**
+     * Keep something for a view unless something already is.
+     *
+     * @param v
+     *            view
+     * @param value
+     *            what to keep
+     * @return what was already kept for the view, or null if the value was kept
+     */
+    V putIfAbsent(View v, V value) {
+
+        expunge();
+
+        return values.putIfAbsent(new ViewKey(v, gone), value);
+    }
+
+    /**
+     * Keep something for a view, replacing anything kept already.
+     *
+     * @param v
+     *            view
+     * @param value
+     *            what to keep
+     */
+    void put(View v, V value) {
+
+        if (values.replace(new Lookup(v), value) == null) {
+            putIfAbsent(v, value);
+        }
+    }
+
+    Collection<V> values() {
+        expunge();
+        return values.values();
+    }
+
+    int size() {
+        expunge();
+        return values.size();
+    }
+
+    void clear() {
+        values.clear();
+    }
+
+    /**
+     * Drop what was kept for views that have been garbage collected.
+     */
+    private void expunge() {
+
+        Reference<? extends View> ref;
+        while ((ref = gone.poll()) != null) {
+            values.remove(ref);
+        }
+    }
+
+    /**
+     * Holds a view weakly in the map, equal to any key or lookup for the same view instance.
+     */
+    private static final class ViewKey extends WeakReference<View> {
+
+        private final int hash;
+
+        ViewKey(View view, ReferenceQueue<View> queue) {
+            super(view, queue);
+            this.hash = System.identityHashCode(view);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (o == this) {
+                return true;
+            }
+
+            View v = get();
+
+            if (o instanceof Lookup) {
+                return (v != null) && (v == ((Lookup) o).view);
+            }
+
+            return (o instanceof ViewKey) && (v != null) && (v == ((ViewKey) o).get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Finds a view's key in the map without holding on to the view.
+     */
+    private static final class Lookup {
+
+        private final View view;
+
+        Lookup(View view) {
+            this.view = view;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (o instanceof ViewKey) {
+                return ((ViewKey) o).get() == view;
+            }
+
+            return (o instanceof Lookup) && (((Lookup) o).view == view);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(view);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import hudson.model.AllView;
+import hudson.model.ListView;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+import hudson.plugins.nested_view.NestedView;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Identifies users who can see exactly the same items, so that they can share job counts. The
+ * fingerprint is a hash of the full names of every item the user can read, remembered per user
+ * until items are added or removed, the permissions saved with Jenkins or an item change, or the
+ * fingerprint gets old enough that the user's groups may have changed outside Jenkins.
+ * <p>
+ * Only views whose items depend on nothing but read permission share counts. Any other view, such
+ * as My View or a list view with job filters, is counted per user as before.
+ *
+ * @author Alistair Todd ringracer@gmail.com
+ */
+public class VisibilityFingerprints {
+
+    /** Group membership can change without Jenkins being told, so fingerprints are retaken this often. */
+    static final long MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ConcurrentMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Hash of the settings that decide who can read what, for Jenkins and each item saved. */
+    private final ConcurrentMap<String, String> savedSettings = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Identify whose view of the jobs in the view the current user has.
+     *
+     * @param v
+     *            view to be counted
+     * @return the user's fingerprint if the view only filters by read permission, otherwise the
+     *         user's name
+     */
+    public String keyFor(View v) {
+        return isShareable(v, 0) ? fingerprint() : userKey();
+    }
+
+    /**
+     * Identify which items the current user can read.
+     *
+     * @return fingerprint of the readable items
+     */
+    public String fingerprint() {
+
+        String user = userName();
+        long now = System.currentTimeMillis();
+        long current = generation.get();
+
+        Fingerprint f = fingerprints.get(user);
+        if ((f != null) && (f.generation == current) && ((now - f.taken) < MAX_AGE)) {
+            hits.incrementAndGet();
+            return f.key;
+        }
+
+        misses.incrementAndGet();
+
+        String key = '#' + hash(readableItemNames());
+        fingerprints.put(user, new Fingerprint(key, current, now));
+
+        return key;
+    }
+
+    /**
+     * Forget every fingerprint, for example when items are added or removed or permissions may have
+     * changed.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        fingerprints.clear();
+    }
+
+    /**
+     * Note the settings that decide who can read items, such as a job's properties, of something
+     * that has just been saved. Every fingerprint is forgotten only if they have changed. Jobs are
+     * saved for all sorts of reasons, including as they build, and most saves change nothing about
+     * who can read what.
+     * <p>
+     * The first save of each since Jenkins started can't be compared with anything, so it is taken
+     * as a change.
+     *
+     * @param name
+     *            full name of the item saved, or an empty string for Jenkins itself
+     * @param settings
+     *            settings that decide who can read items, or null if they couldn't be read
+     * @return whether the fingerprints were forgotten
+     */
+    public boolean saved(String name, String settings) {
+
+        if (settings == null) {
+            savedSettings.remove(name);
+            invalidateAll();
+            return true;
+        }
+
+        String hash = hash(Collections.singletonList(settings));
+        if (hash.equals(savedSettings.put(name, hash))) {
+            return false;
+        }
+
+        invalidateAll();
+        return true;
+    }
+
+    /**
+     * Forget the settings noted for an item that has been deleted or moved.
+     *
+     * @param name
+     *            full name of the item
+     */
+    public void forgetSaved(String name) {
+        savedSettings.remove(name);
+    }
+
+    /**
+     * Forget one user's fingerprint, for example when they log in and their groups may have changed.
+     *
+     * @param userName
+     *            name of the user
+     */
+    public void forget(String userName) {
+        fingerprints.remove(userName);
+    }
+
+    /**
+     * @return number of users with a fingerprint
+     */
+    public int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * @return number of different fingerprints, each shared by one or more users
+     */
+    public int getGroupCount() {
+
+        Set<String> keys = new HashSet<String>();
+        for (Fingerprint f : fingerprints.values()) {
+            keys.add(f.key);
+        }
+
+        return keys.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Percentage of lookups that found a fingerprint.
+     *
+     * @return hit rate from 0 to 100
+     */
+    public int getHitPercentage() {
+
+        long h = hits.get();
+        long total = h + misses.get();
+
+        return (total == 0) ? 0 : (int) ((h * 100) / total);
+    }
+
+    /**
+     * Whether the items in the view depend only on which items the user can read.
+     */
+    boolean isShareable(View v, int depth) {
+
+        if (v instanceof AllView) {
+            return true;
+        }
+
+        if (v instanceof ListView) {
+            // Job filters can look at anything, including who is asking
+            List<?> filters = ((ListView) v).getJobFilters();
+            return (filters == null) || filters.isEmpty();
+        }
+
+        if ((v instanceof NestedView) && (depth < ViewItemExtractor.MAX_DEPTH)) {
+
+            for (View child : ((NestedView) v).getViews()) {
+                if (!isShareable(child, depth + 1)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private String userKey() {
+        return userKeyFor(userName());
+    }
+
+    /**
+     * @param userName
+     *            name of a user
+     * @return key for counts made for that user alone
+     */
+    String userKeyFor(String userName) {
+        return '@' + userName;
+    }
+
+    /**
+     * @return name of the current user
+     */
+    protected String userName() {
+        return Jenkins.getAuthentication().getName();
+    }
+
+    /**
+     * @return full names of every item the current user can read, in the same order for everyone
+     */
+    protected Iterable<String> readableItemNames() {
+
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return Collections.emptyList();
+        }
+
+        List<TopLevelItem> items = jenkins.getAllItems(TopLevelItem.class);
+        List<String> names = new ArrayList<String>(items.size());
+        for (TopLevelItem item : items) {
+            names.add(item.getFullName());
+        }
+
+        return names;
+    }
+
+    /**
+     * A cryptographic hash, so that two users with different items can't end up sharing counts.
+     */
+    static String hash(Iterable<String> names) {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+
+        for (String name : names) {
+            digest.update(name.getBytes(UTF8));
+            digest.update((byte) 0);
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap(digest.digest());
+
+        return String.format("%016x%016x", bytes.getLong(), bytes.getLong());
+    }
+
+    private static final class Fingerprint {
+
+        private final String key;
+        private final long generation;
+        private final long taken;
+
+        Fingerprint(String key, long generation, long taken) {
+            this.key = key;
+            this.generation = generation;
+            this.taken = taken;
+        }
+    }
+}
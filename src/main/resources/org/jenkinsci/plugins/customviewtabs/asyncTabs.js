@@ -0,0 +1,107 @@
+// Fills in the view tab labels and colours once the page has loaded, for tab bars rendered with
+// just the view names, and loads the "more" menu when it is first opened. The tab data comes from
+// TabStatusAction.
+var customViewTabs = {
+
+    retryDelay : 2000,
+
+    loadAll : function() {
+        var markers = document.querySelectorAll("span.custom-view-tabs-async");
+        for (var i = 0; i < markers.length; i++) {
+            customViewTabs.load(markers[i]);
+        }
+    },
+
+    load : function(marker) {
+        var url = marker.getAttribute("data-url");
+        var tabBarId = marker.getAttribute("data-tab-bar");
+
+        var xhr = new XMLHttpRequest();
+        xhr.open("GET", url, true);
+        xhr.onreadystatechange = function() {
+            if (xhr.readyState == 4 && xhr.status == 200) {
+                var response = JSON.parse(xhr.responseText);
+                customViewTabs.update(tabBarId, response.tabs);
+                if (response.pending) {
+                    // Some views took too long to count, they will be cached soon
+                    setTimeout(function() {
+                        customViewTabs.load(marker);
+                    }, customViewTabs.retryDelay);
+                }
+            }
+        };
+        xhr.send(null);
+    },
+
+    update : function(tabBarId, tabs) {
+        for (var i = 0; i < tabs.length; i++) {
+            var radio = document.getElementById("tab-" + tabBarId + "-" + i);
+            if (radio == null) {
+                return;
+            }
+
+            var link = radio.nextSibling;
+            while (link != null && link.nodeName != "A") {
+                link = link.nextSibling;
+            }
+            if (link == null) {
+                continue;
+            }
+
+            link.textContent = radio.checked ? tabs[i].activeLabel : tabs[i].inactiveLabel;
+            link.style.backgroundColor = "#" + tabs[i].colour;
+        }
+    },
+
+    more : function(link) {
+        var menu = link.nextSibling;
+        while (menu != null && menu.nodeName != "DIV") {
+            menu = menu.nextSibling;
+        }
+        if (menu == null) {
+            return false;
+        }
+
+        if (menu.style.display != "none") {
+            menu.style.display = "none";
+            return false;
+        }
+        menu.style.display = "block";
+
+        if (menu.getAttribute("data-loaded") == null) {
+            menu.setAttribute("data-loaded", "true");
+            menu.textContent = "...";
+
+            var xhr = new XMLHttpRequest();
+            xhr.open("GET", link.getAttribute("data-url"), true);
+            xhr.onreadystatechange = function() {
+                if (xhr.readyState == 4) {
+                    if (xhr.status == 200) {
+                        customViewTabs.fillMenu(menu, link.getAttribute("data-root-url"),
+                                JSON.parse(xhr.responseText).views);
+                    }
+                    else {
+                        // Try again next time the menu is opened
+                        menu.removeAttribute("data-loaded");
+                    }
+                }
+            };
+            xhr.send(null);
+        }
+
+        return false;
+    },
+
+    fillMenu : function(menu, rootUrl, views) {
+        menu.textContent = "";
+        for (var i = 0; i < views.length; i++) {
+            var entry = document.createElement("a");
+            entry.href = rootUrl + "/" + views[i].url;
+            entry.textContent = views[i].label;
+            if (views[i].colour) {
+                entry.style.backgroundColor = "#" + views[i].colour;
+            }
+            menu.appendChild(entry);
+        }
+    }
+};
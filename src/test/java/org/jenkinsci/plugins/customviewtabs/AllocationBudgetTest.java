@@ -0,0 +1,262 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assume.assumeTrue;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.plugins.customviewtabs.ViewItemExtractor.ItemVisitor;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Bytes allocated on the per-tab path, measured with the thread allocation counter once the JIT has
+ * had a chance to optimise the code. Every tab on every page goes through here, so the budgets are
+ * kept close to what is allocated today, with room for JVMs without compressed pointers or compact
+ * strings. Raise a budget only for a change that needs the extra garbage.
+ *
+ * Each measurement is the least of several rounds, so that a stray allocation by the JVM itself
+ * doesn't fail a budget. The tests are skipped where allocations can't be measured like that: with
+ * the JIT off, or with an agent such as a coverage tool that adds allocations of its own.
+ */
+public class AllocationBudgetTest {
+
+    /** One label string. */
+    static final long LABEL_BUDGET = 256;
+
+    /** Two labels and the tab data holding them. */
+    static final long TAB_DATA_BUDGET = 512;
+
+    /** Tab data that is reused because nothing has changed. */
+    static final long CACHED_TAB_DATA_BUDGET = 32;
+
+    /** Extra for extracting a view of 10000 items rather than 10, which should be nothing. */
+    static final long EXTRACT_PER_VIEW_BUDGET = 64;
+
+    /** Tab data for one view on a warm cache, looking up its counts and tab data included. */
+    static final long WARM_TAB_DATA_BUDGET = 1024;
+
+    /** Each further view when getting the tab data for a whole tab bar on a warm cache. */
+    static final long WARM_TAB_PER_VIEW_BUDGET = 256;
+
+    /** Bytes per call a measurement may go over its budget by. */
+    static final long TOLERANCE = 16;
+
+    private static final int WARMUP = 20000;
+    private static final int ROUNDS = 5;
+    private static final int CALLS = 20000;
+
+    /** JVM options that leave allocations unoptimised, or add allocations of their own. */
+    private static final List<String> UNMEASURABLE = Arrays.asList("-javaagent", "-agentlib", "-agentpath", "-Xint",
+            "-XX:TieredStopAtLevel", "-XX:-DoEscapeAnalysis");
+
+    private static final String NAME = "All The Jobs We Have";
+
+    private TemplateLabelGenerator generator;
+    private TabBarConfig config;
+    private JobStatusCount jobCount;
+
+    @Before
+    public void setUp() {
+
+        assumeTrue(isMeasurable());
+
+        generator = new TemplateLabelGenerator("$N1 ($F/$U/$D of $T)", "$N3 $N2", new NameTransformer(
+                "(\\w)\\w*|\\s", "$1", 3));
+
+        TabColours colours = new TabColours();
+        colours.setTabColourFailed("ff0000");
+
+        config = new TabBarConfig(generator, false, false, colours);
+        jobCount = new JobStatusCount(Collections.<TopLevelItem> emptyList());
+    }
+
+    @Test
+    public void shouldGenerateLabelWithinBudget() throws Exception {
+
+        long bytes = bytesPerCall(new Runnable() {
+            public void run() {
+                generator.generateLabel(NAME, jobCount, generator.getActiveTemplate());
+            }
+        });
+
+        assertWithinBudget(bytes, LABEL_BUDGET);
+    }
+
+    @Test
+    public void shouldGenerateLabelFromPatternWithinBudget() throws Exception {
+
+        long bytes = bytesPerCall(new Runnable() {
+            public void run() {
+                generator.generateLabel(NAME, jobCount, "$N1 ($F/$U/$D of $T)");
+            }
+        });
+
+        assertWithinBudget(bytes, LABEL_BUDGET);
+    }
+
+    @Test
+    public void shouldWorkOutTabDataWithinBudget() throws Exception {
+
+        long bytes = bytesPerCall(new Runnable() {
+            public void run() {
+                config.tabDataFor(NAME, jobCount);
+            }
+        });
+
+        assertWithinBudget(bytes, TAB_DATA_BUDGET);
+    }
+
+    @Test
+    public void shouldReuseTabDataWithinBudget() throws Exception {
+
+        final View v = createMock(View.class);
+        expect(v.getDisplayName()).andStubReturn(NAME);
+        replay(v);
+
+        // The mock allocates on every call, which is no part of the tab's cost
+        long mockBytes = bytesPerCall(new Runnable() {
+            public void run() {
+                v.getDisplayName();
+            }
+        });
+
+        final TabDataCache tabs = new TabDataCache();
+
+        long bytes = bytesPerCall(new Runnable() {
+            public void run() {
+                tabs.tabDataFor(config, v, jobCount);
+            }
+        });
+
+        assertWithinBudget(bytes - mockBytes, CACHED_TAB_DATA_BUDGET);
+    }
+
+    @Test
+    public void shouldNotAllocateForEachItemExtracted() throws Exception {
+
+        final ViewItemExtractor extractor = new ViewItemExtractor();
+        final ItemVisitor visitor = new ItemVisitor() {
+            public boolean visit(TopLevelItem item) {
+                return true;
+            }
+        };
+
+        final View small = viewOf(10);
+        final View large = viewOf(10000);
+
+        long smallBytes = bytesPerCall(new Runnable() {
+            public void run() {
+                extractor.visitItemsInView(small, visitor);
+            }
+        });
+
+        long largeBytes = bytesPerCall(new Runnable() {
+            public void run() {
+                extractor.visitItemsInView(large, visitor);
+            }
+        });
+
+        assertWithinBudget(largeBytes - smallBytes, EXTRACT_PER_VIEW_BUDGET);
+    }
+
+    /**
+     * Whether the bytes allocated by a call can be measured and compared with a budget.
+     */
+    static boolean isMeasurable() {
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled()) {
+            return false;
+        }
+
+        if (ManagementFactory.getCompilationMXBean() == null) {
+            return false;
+        }
+
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            for (String option : UNMEASURABLE) {
+                if (argument.startsWith(option)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Bytes allocated by the current thread for each call after warming up, the least of several
+     * rounds.
+     */
+    static long bytesPerCall(Runnable call) {
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long id = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP; i++) {
+            call.run();
+        }
+
+        long least = Long.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS; round++) {
+
+            long before = threads.getThreadAllocatedBytes(id);
+
+            for (int i = 0; i < CALLS; i++) {
+                call.run();
+            }
+
+            least = Math.min(least, (threads.getThreadAllocatedBytes(id) - before) / CALLS);
+        }
+
+        return least;
+    }
+
+    static void assertWithinBudget(long bytes, long budget) {
+        assertThat(bytes, lessThanOrEqualTo(budget + TOLERANCE));
+    }
+
+    private View viewOf(int items) {
+
+        // The extractor passes items on without looking at them
+        List<TopLevelItem> list = new ArrayList<TopLevelItem>(Collections.<TopLevelItem> nCopies(items, null));
+
+        View v = createMock(View.class);
+        expect(v.getItems()).andStubReturn(list);
+        replay(v);
+
+        return v;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static java.util.Arrays.asList;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Collections;
+
+import org.jenkinsci.plugins.customviewtabs.ColourRule.Metric;
+import org.jenkinsci.plugins.customviewtabs.ColourRule.Operator;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColourTableTest {
+
+    private TabColours legacy;
+
+    @Before
+    public void setUp() {
+
+        legacy = new TabColours();
+
+        legacy.setTabColourDefault("green");
+        legacy.setTabColourFailed("red");
+        legacy.setTabColourUnstable("yellow");
+        legacy.setTabColourDisabled("grey");
+    }
+
+    @Test
+    public void shouldColourLikeTabColoursWithoutRules() throws Exception {
+
+        ColourTable table = ColourTable.compile(Collections.<ColourRule> emptyList(), legacy);
+
+        for (int failed = 0; failed < 2; failed++) {
+            for (int unstable = 0; unstable < 2; unstable++) {
+                for (int disabled = 0; disabled < 2; disabled++) {
+
+                    JobStatusCount counts = countsFor(failed, unstable, disabled, 1);
+
+                    assertThat(table.colourFor(counts), is(legacy.getColourFor(counts)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldUseFirstMatchingRule() throws Exception {
+
+        ColourTable table = ColourTable.compile(asList(
+                new ColourRule(Metric.DISABLED, false, Operator.GE, 5, "#aaaaaa"),
+                new ColourRule(Metric.DISABLED, false, Operator.GE, 1, "bbbbbb")), legacy);
+
+        assertThat(table.colourFor(countsFor(0, 0, 5, 0)), is("aaaaaa"));
+        assertThat(table.colourFor(countsFor(0, 0, 2, 0)), is("bbbbbb"));
+        assertThat(table.colourFor(countsFor(0, 0, 0, 2)), is("green"));
+    }
+
+    @Test
+    public void shouldTryRulesBeforeStatusColours() throws Exception {
+
+        ColourTable table = ColourTable.compile(
+                asList(new ColourRule(Metric.FAILED, true, Operator.LE, 10, "orange")), legacy);
+
+        assertThat(table.colourFor(countsFor(1, 0, 0, 19)), is("orange"));
+        assertThat(table.colourFor(countsFor(5, 0, 0, 15)), is("red"));
+    }
+
+    @Test
+    public void shouldCompareRatiosAsPercentages() throws Exception {
+
+        ColourTable table = ColourTable.compile(
+                asList(new ColourRule(Metric.FAILED, true, Operator.GT, 20, "ff0000")), legacy);
+
+        assertThat(table.colourFor(countsFor(1, 0, 0, 4)), is("red"));
+        assertThat(table.colourFor(countsFor(2, 0, 0, 7)), is("ff0000"));
+    }
+
+    @Test
+    public void shouldNeverMatchRatioForViewWithNoJobs() throws Exception {
+
+        ColourTable table = ColourTable.compile(
+                asList(new ColourRule(Metric.FAILED, true, Operator.LE, 0, "ff0000")), legacy);
+
+        assertThat(table.colourFor(countsFor(0, 0, 0, 0)), is("green"));
+    }
+
+    @Test
+    public void shouldSupportEveryOperator() throws Exception {
+
+        assertThat(matches(Operator.GT, 3, 2), is(true));
+        assertThat(matches(Operator.GT, 2, 2), is(false));
+        assertThat(matches(Operator.GE, 2, 2), is(true));
+        assertThat(matches(Operator.LT, 1, 2), is(true));
+        assertThat(matches(Operator.LT, 2, 2), is(false));
+        assertThat(matches(Operator.LE, 2, 2), is(true));
+        assertThat(matches(Operator.EQ, 2, 2), is(true));
+        assertThat(matches(Operator.EQ, 3, 2), is(false));
+    }
+
+    @Test
+    public void shouldOnlyNeedFullCountsForConfiguredRules() throws Exception {
+
+        assertThat(ColourTable.compile(null, legacy).needsFullCounts(), is(false));
+        assertThat(ColourTable.compile(asList(new ColourRule(Metric.TOTAL, false, Operator.GT, 0, "ff0000")), legacy)
+                .needsFullCounts(), is(true));
+    }
+
+    private boolean matches(Operator operator, int total, int threshold) {
+
+        ColourTable table = ColourTable.compile(asList(new ColourRule(Metric.TOTAL, false, operator, threshold, "match")),
+                legacy);
+
+        return table.colourFor(countsFor(0, 0, 0, total)).equals("match");
+    }
+
+    private JobStatusCount countsFor(int failed, int unstable, int disabled, int successful) {
+
+        JobStatusCount jobCounts = createMock(JobStatusCount.class);
+
+        expect(jobCounts.failed()).andStubReturn(failed);
+        expect(jobCounts.unstable()).andStubReturn(unstable);
+        expect(jobCounts.disabled()).andStubReturn(disabled);
+        expect(jobCounts.successful()).andStubReturn(successful);
+        expect(jobCounts.total()).andStubReturn(failed + unstable + disabled + successful);
+        expect(jobCounts.hasFailures()).andStubReturn(failed > 0);
+        expect(jobCounts.hasUnstable()).andStubReturn(unstable > 0);
+        expect(jobCounts.hasDisabled()).andStubReturn(disabled > 0);
+
+        replay(jobCounts);
+
+        return jobCounts;
+    }
+}
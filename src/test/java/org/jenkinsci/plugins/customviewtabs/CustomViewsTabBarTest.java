@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assume.assumeTrue;
+import hudson.model.FreeStyleProject;
+import hudson.model.ListView;
+import hudson.model.Result;
+import hudson.model.View;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.customviewtabs.CustomViewsTabBar.CustomViewsTabBarDescriptor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.FailureBuilder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class CustomViewsTabBarTest {
+
+    private static final int RENDERERS = 3;
+    private static final int RENDERS = 2000;
+    private static final int LIST_VIEWS = 3;
+    private static final int UNRELATED_BUILDS = 5;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void shouldRenderEveryTabFromOneWholeConfigurationWhileItIsSaved() throws Exception {
+
+        FreeStyleProject failing = j.createFreeStyleProject("failing");
+        failing.getBuildersList().add(new FailureBuilder());
+        j.assertBuildStatus(Result.FAILURE, failing.scheduleBuild2(0).get());
+        j.buildAndAssertSuccess(j.createFreeStyleProject("passing"));
+
+        final CustomViewsTabBarDescriptor d = j.jenkins.getDescriptorByType(CustomViewsTabBarDescriptor.class);
+        final CustomViewsTabBar tabBar = new CustomViewsTabBar();
+        final Collection<View> views = j.jenkins.getViews();
+
+        // Labels that need every job counted, with status colours
+        final JSONObject counted = config("counted $T", "ff0000", "aaaaaa");
+        // Labels and colours that need nothing counted at all
+        final JSONObject plain = config("plain $N1", "bbbbbb", "bbbbbb");
+
+        d.configure(null, counted);
+
+        final AtomicBoolean rendering = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(RENDERERS + 1);
+        try {
+            Future<?> saving = pool.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int i = 0; rendering.get(); i++) {
+                        d.configure(null, ((i % 2) == 0) ? plain : counted);
+                    }
+                    return null;
+                }
+            });
+
+            List<Future<String>> renders = new ArrayList<Future<String>>();
+            for (int r = 0; r < RENDERERS; r++) {
+                renders.add(pool.submit(new Callable<String>() {
+                    public String call() {
+                        for (int i = 0; i < RENDERS; i++) {
+                            for (TabDisplayMetaData data : tabBar.getAllTabData(views)) {
+                                String mismatch = mismatchIn(data);
+                                if (mismatch != null) {
+                                    return mismatch;
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<String> render : renders) {
+                assertThat(render.get(5, TimeUnit.MINUTES), is(nullValue()));
+            }
+
+            rendering.set(false);
+            saving.get(1, TimeUnit.MINUTES);
+        }
+        finally {
+            rendering.set(false);
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldGetTabDataFromWarmCacheWithinAllocationBudget() throws Exception {
+
+        assumeTrue(AllocationBudgetTest.isMeasurable());
+
+        j.buildAndAssertSuccess(j.createFreeStyleProject("passing"));
+        for (int i = 0; i < LIST_VIEWS; i++) {
+            j.jenkins.addView(new ListView("list" + i));
+        }
+
+        CustomViewsTabBarDescriptor d = j.jenkins.getDescriptorByType(CustomViewsTabBarDescriptor.class);
+        d.configure(null, config("counted $T", "ff0000", "aaaaaa"));
+
+        final CustomViewsTabBar tabBar = new CustomViewsTabBar();
+        final View all = j.jenkins.getPrimaryView();
+        final List<View> views = new ArrayList<View>(j.jenkins.getViews());
+
+        // Counted and worked out once, then only looked up
+        TabDisplayMetaData first = tabBar.getTabData(all);
+        tabBar.getAllTabData(views);
+        assertThat(tabBar.getTabData(all), is(sameInstance(first)));
+
+        long oneBytes = AllocationBudgetTest.bytesPerCall(new Runnable() {
+            public void run() {
+                tabBar.getTabData(all);
+            }
+        });
+
+        long allBytes = AllocationBudgetTest.bytesPerCall(new Runnable() {
+            public void run() {
+                tabBar.getAllTabData(views);
+            }
+        });
+
+        AllocationBudgetTest.assertWithinBudget(oneBytes, AllocationBudgetTest.WARM_TAB_DATA_BUDGET);
+        AllocationBudgetTest.assertWithinBudget(allBytes, AllocationBudgetTest.WARM_TAB_DATA_BUDGET
+                + ((views.size() - 1) * AllocationBudgetTest.WARM_TAB_PER_VIEW_BUDGET));
+        assertThat(tabBar.getTabData(all), is(sameInstance(first)));
+    }
+
+    @Test
+    public void shouldKeepRenderedTabsWhileOnlyJobsInOtherViewsBuild() throws Exception {
+
+        FreeStyleProject shown = j.createFreeStyleProject("shown");
+        FreeStyleProject unrelated = j.createFreeStyleProject("unrelated");
+
+        ListView mine = new ListView("mine");
+        j.jenkins.addView(mine);
+        mine.add(shown);
+
+        ListView others = new ListView("others");
+        j.jenkins.addView(others);
+        others.add(unrelated);
+
+        CustomViewsTabBarDescriptor d = j.jenkins.getDescriptorByType(CustomViewsTabBarDescriptor.class);
+        d.configure(null, config("counted $T", "ff0000", "aaaaaa"));
+
+        CustomViewsTabBar tabBar = new CustomViewsTabBar();
+        List<View> views = Collections.<View> singletonList(mine);
+
+        String html = tabBar.getTabsHtml(views, mine, "", "1");
+
+        TabBarFragmentCache fragments = d.getFragmentCache();
+        long misses = fragments.getMisses();
+        long hits = fragments.getHits();
+
+        for (int i = 0; i < UNRELATED_BUILDS; i++) {
+            j.buildAndAssertSuccess(unrelated);
+            assertThat(tabBar.getTabsHtml(views, mine, "", "1"), is(html));
+        }
+
+        assertThat(fragments.getMisses(), is(misses));
+        assertThat(fragments.getHits(), is(hits + UNRELATED_BUILDS));
+
+        // A build of a job that is shown does render the tabs again
+        j.buildAndAssertSuccess(shown);
+        tabBar.getTabsHtml(views, mine, "", "1");
+
+        assertThat(fragments.getMisses(), is(misses + 1));
+    }
+
+    /**
+     * A counted label must show every job with the status colour, a plain label the plain colour,
+     * and a tab with just the view name, not counted for its configuration, either default colour.
+     */
+    private static String mismatchIn(TabDisplayMetaData data) {
+
+        String label = data.getActiveLabel();
+        String colour = data.getColour();
+
+        boolean matches;
+        if (label.startsWith("counted ")) {
+            matches = label.equals("counted 2") && colour.equals("ff0000");
+        }
+        else if (label.startsWith("plain ")) {
+            matches = colour.equals("bbbbbb");
+        }
+        else {
+            matches = colour.equals("aaaaaa") || colour.equals("bbbbbb");
+        }
+
+        return matches ? null : (label + " in #" + colour);
+    }
+
+    private static JSONObject config(String pattern, String statusColour, String defaultColour) {
+
+        JSONObject config = new JSONObject();
+        config.put("patternActiveTab", pattern);
+        config.put("patternInactiveTab", pattern);
+        config.put("shortNameLength", 3);
+        config.put("nameRegexMatch", "(\\w)\\w*|\\s");
+        config.put("nameRegexReplacement", "$1");
+        config.put("conditionActiveTab", false);
+        config.put("conditionInactiveTab", false);
+        config.put("historySize", 12);
+        config.put("historyInterval", 300);
+        config.put("asyncCounts", false);
+        config.put("liveCounts", true);
+        config.put("refreshInterval", 10);
+        config.put("maxStaleness", 60);
+        config.put("slowViewThreshold", 0);
+        config.put("countBudget", 0);
+        config.put("maxTabs", 0);
+        config.put("pinnedViews", "");
+        config.put("tabColourDefault", defaultColour);
+        config.put("tabColourDisabled", statusColour);
+        config.put("tabColourUnstable", statusColour);
+        config.put("tabColourFailed", statusColour);
+        config.put("tabColourCustom1", "");
+        config.put("tabColourCustom2", "");
+        config.put("tabColourCustom3", "");
+        config.put("tabColourCustom4", "");
+
+        return config;
+    }
+}
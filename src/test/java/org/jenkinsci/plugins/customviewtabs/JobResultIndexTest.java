@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.easymock.classextension.EasyMock.verify;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import hudson.model.AbstractProject;
+import hudson.model.BallColor;
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jenkinsci.plugins.customviewtabs.JobResultIndex.Entry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("rawtypes")
+public class JobResultIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JobResultIndex index = new JobResultIndex();
+
+    @Test
+    public void shouldOnlyLookAtLastBuildOnce() throws Exception {
+
+        Job job = aJob("folder/job", BallColor.RED);
+
+        assertThat(index.colourOf(job), is(BallColor.RED));
+        assertThat(index.colourOf(job), is(BallColor.RED));
+
+        verify(job);
+    }
+
+    @Test
+    public void shouldUseRecordedBuildColour() throws Exception {
+
+        Job job = aJob("job", BallColor.RED);
+
+        index.colourOf(job);
+        index.record(aRun(job, 1, BallColor.BLUE));
+
+        assertThat(index.colourOf(job), is(BallColor.BLUE));
+    }
+
+    @Test
+    public void shouldIgnoreBuildsThatAreNotTheLatest() throws Exception {
+
+        Job job = aJob("job", BallColor.RED);
+
+        index.colourOf(job);
+        index.record(aRun(job, 0, BallColor.BLUE));
+
+        assertThat(index.size(), is(0));
+    }
+
+    @Test
+    public void shouldLookAgainWhenBuildStartedWithoutBeingRecorded() throws Exception {
+
+        Job job = createMock(Job.class);
+        expect(job.getFullName()).andStubReturn("job");
+        expect(job.getNextBuildNumber()).andReturn(2).times(2).andReturn(3);
+        expect(job.getIconColor()).andReturn(BallColor.BLUE).andReturn(BallColor.RED);
+        replay(job);
+
+        assertThat(index.colourOf(job), is(BallColor.BLUE));
+        assertThat(index.colourOf(job), is(BallColor.BLUE));
+        assertThat(index.colourOf(job), is(BallColor.RED));
+
+        verify(job);
+    }
+
+    @Test
+    public void shouldKeepIndexOverRestart() throws Exception {
+
+        File file = new File(temporaryFolder.getRoot(), "job-status.idx");
+
+        index.open(new JobResultStore(file));
+        index.colourOf(aJob("a", BallColor.BLUE));
+        index.colourOf(aJob("b", BallColor.RED));
+        index.forget("b");
+        index.flush();
+        index.close();
+
+        JobResultIndex restarted = new JobResultIndex();
+        restarted.open(new JobResultStore(file));
+
+        assertThat(restarted.size(), is(1));
+        assertThat(restarted.colourOf(aJobNotLookedUp("a")), is(BallColor.BLUE));
+    }
+
+    @Test
+    public void shouldNotKeepBuildingColourOverRestart() throws Exception {
+
+        File file = new File(temporaryFolder.getRoot(), "job-status.idx");
+
+        index.open(new JobResultStore(file));
+        index.record(aRun(aJobNotLookedUp("job"), 1, BallColor.RED_ANIME));
+        index.colourOf(aJob("other", BallColor.BLUE_ANIME));
+        index.flush();
+        index.close();
+
+        // Jenkins stopped with the builds still running, so they will never finish
+        JobResultIndex restarted = new JobResultIndex();
+        restarted.open(new JobResultStore(file));
+
+        assertThat(restarted.size(), is(0));
+        assertThat(restarted.colourOf(aJob("job", BallColor.RED)), is(BallColor.RED));
+    }
+
+    @Test
+    public void shouldDropBuildingColoursFoundInStoreOnRestart() throws Exception {
+
+        File file = new File(temporaryFolder.getRoot(), "job-status.idx");
+
+        Map<String, Entry> written = new HashMap<String, Entry>();
+        written.put("building", new Entry(BallColor.BLUE_ANIME, 2));
+        written.put("finished", new Entry(BallColor.YELLOW, 2));
+
+        JobResultStore store = new JobResultStore(file);
+        store.rewrite(written);
+        store.close();
+
+        index.open(new JobResultStore(file));
+
+        assertThat(index.size(), is(1));
+        assertThat(index.colourOf(aJob("building", BallColor.BLUE)), is(BallColor.BLUE));
+        assertThat(index.colourOf(aJobNotLookedUp("finished")), is(BallColor.YELLOW));
+
+        index.close();
+
+        JobResultIndex restarted = new JobResultIndex();
+        restarted.open(new JobResultStore(file));
+
+        assertThat(restarted.size(), is(1));
+    }
+
+    @Test
+    public void shouldLeaveWritingLookedUpColoursToFlush() throws Exception {
+
+        File file = new File(temporaryFolder.getRoot(), "job-status.idx");
+
+        index.open(new JobResultStore(file));
+        long opened = file.length();
+
+        // Enough to fill the write buffer several times over
+        for (int i = 0; i < 2000; i++) {
+            index.colourOf(aJob("folder/job" + i, BallColor.BLUE));
+        }
+
+        assertThat(file.length(), is(opened));
+
+        index.flush();
+
+        assertThat(file.length() > opened, is(true));
+
+        index.close();
+
+        JobResultIndex restarted = new JobResultIndex();
+        restarted.open(new JobResultStore(file));
+
+        assertThat(restarted.size(), is(2000));
+    }
+
+    @Test
+    public void shouldAlwaysCheckWhetherProjectIsDisabled() throws Exception {
+
+        AbstractProject project = createMock(AbstractProject.class);
+        expect(project.isDisabled()).andReturn(false).andReturn(true);
+        expect(project.getFullName()).andStubReturn("project");
+        expect(project.getNextBuildNumber()).andStubReturn(2);
+        expect(project.getIconColor()).andReturn(BallColor.BLUE).once();
+        replay(project);
+
+        assertThat(index.colourOf(project), is(BallColor.BLUE));
+        assertThat(index.colourOf(project), is(BallColor.DISABLED));
+    }
+
+    @Test
+    public void shouldForgetJobsInFolder() throws Exception {
+
+        index.colourOf(aJob("folder/a", BallColor.BLUE));
+        index.colourOf(aJob("folder/b", BallColor.BLUE));
+        index.colourOf(aJob("folder2/c", BallColor.BLUE));
+
+        index.forget("folder");
+
+        assertThat(index.size(), is(1));
+    }
+
+    @Test
+    public void shouldKeepJobWhenOlderBuildIsDeleted() throws Exception {
+
+        Job job = aJob("job", BallColor.BLUE);
+        index.colourOf(job);
+
+        Job discarding = aJobWithLastBuild("job", 5);
+
+        assertThat(index.deleted(aRun(discarding, 1, BallColor.RED)), is(false));
+        assertThat(index.size(), is(1));
+    }
+
+    @Test
+    public void shouldForgetJobWhenLatestBuildIsDeleted() throws Exception {
+
+        index.colourOf(aJob("folder", BallColor.BLUE));
+        index.colourOf(aJob("folder/a", BallColor.BLUE));
+
+        Job job = aJobWithLastBuild("folder", 5);
+
+        assertThat(index.deleted(aRun(job, 5, BallColor.RED)), is(true));
+        assertThat(index.size(), is(1));
+    }
+
+    private Job aJob(String fullName, BallColor colour) {
+
+        Job job = createMock(Job.class);
+        expect(job.getFullName()).andStubReturn(fullName);
+        expect(job.getNextBuildNumber()).andStubReturn(2);
+        expect(job.getIconColor()).andReturn(colour).once();
+        replay(job);
+
+        return job;
+    }
+
+    private Job aJobNotLookedUp(String fullName) {
+
+        Job job = createMock(Job.class);
+        expect(job.getFullName()).andStubReturn(fullName);
+        expect(job.getNextBuildNumber()).andStubReturn(2);
+        replay(job);
+
+        return job;
+    }
+
+    private Job aJobWithLastBuild(String fullName, int number) {
+
+        Run last = createMock(Run.class);
+        expect(last.getNumber()).andStubReturn(number);
+        replay(last);
+
+        Job job = createMock(Job.class);
+        expect(job.getFullName()).andStubReturn(fullName);
+        expect(job.getLastBuild()).andStubReturn(last);
+        replay(job);
+
+        return job;
+    }
+
+    private Run aRun(Job job, int number, BallColor colour) {
+
+        Run run = createMock(Run.class);
+        expect(run.getParent()).andStubReturn(job);
+        expect(run.getNumber()).andStubReturn(number);
+        expect(run.getIconColor()).andStubReturn(colour);
+        replay(run);
+
+        return run;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import hudson.model.BallColor;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jenkinsci.plugins.customviewtabs.JobResultIndex.Entry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JobResultStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(temporaryFolder.getRoot(), "custom-view-tabs/job-status.idx");
+    }
+
+    @Test
+    public void shouldReplayAppendedChanges() throws Exception {
+
+        JobResultStore store = new JobResultStore(file);
+        store.rewrite(new HashMap<String, Entry>());
+
+        store.append("a", new Entry(BallColor.BLUE, 2), false);
+        store.append("b", new Entry(BallColor.RED, 5), false);
+        store.append("a", new Entry(BallColor.YELLOW, 3), false);
+        store.append("b", null, true);
+        store.close();
+
+        Map<String, Entry> entries = new JobResultStore(file).load();
+
+        assertThat(entries.size(), is(1));
+        assertThat(entries.get("a").colour, is(BallColor.YELLOW));
+        assertThat(entries.get("a").stamp, is(3));
+    }
+
+    @Test
+    public void shouldKeepRecordsBeforeCorruption() throws Exception {
+
+        JobResultStore store = new JobResultStore(file);
+        store.rewrite(new HashMap<String, Entry>());
+
+        store.append("a", new Entry(BallColor.BLUE, 2), true);
+        long goodLength = file.length();
+        store.append("b", new Entry(BallColor.RED, 5), true);
+        store.close();
+
+        RandomAccessFile damaged = new RandomAccessFile(file, "rw");
+        damaged.seek(goodLength + 4);
+        damaged.write(damaged.read() ^ 0xff);
+        damaged.close();
+
+        Map<String, Entry> entries = new JobResultStore(file).load();
+
+        assertThat(entries.size(), is(1));
+        assertThat(entries.get("a").colour, is(BallColor.BLUE));
+        assertThat(entries.get("b"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldKeepRecordsBeforeTruncation() throws Exception {
+
+        JobResultStore store = new JobResultStore(file);
+        store.rewrite(new HashMap<String, Entry>());
+
+        store.append("a", new Entry(BallColor.BLUE, 2), true);
+        store.append("b", new Entry(BallColor.RED, 5), true);
+        store.close();
+
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(file.length() - 3);
+        truncated.close();
+
+        assertThat(new JobResultStore(file).load().size(), is(1));
+    }
+
+    @Test
+    public void shouldCompactToCurrentEntries() throws Exception {
+
+        JobResultStore store = new JobResultStore(file);
+        store.rewrite(new HashMap<String, Entry>());
+
+        for (int i = 0; i < 2000; i++) {
+            store.append("a", new Entry(BallColor.BLUE, i), false);
+        }
+
+        assertThat(store.needsCompaction(1), is(true));
+
+        Map<String, Entry> current = new HashMap<String, Entry>();
+        current.put("a", new Entry(BallColor.BLUE, 1999));
+        store.rewrite(current);
+        store.close();
+
+        assertThat(store.needsCompaction(1), is(false));
+        assertThat(new JobResultStore(file).load().get("a").stamp, is(1999));
+    }
+}
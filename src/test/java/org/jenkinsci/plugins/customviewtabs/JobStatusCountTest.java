@@ -19,16 +19,20 @@ import static hudson.model.BallColor.BLUE;
 import static hudson.model.BallColor.DISABLED;
 import static hudson.model.BallColor.RED;
 import static hudson.model.BallColor.YELLOW;
+import static java.util.Arrays.asList;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import hudson.model.BallColor;
+import hudson.model.ItemGroup;
 import hudson.model.TopLevelItem;
 import hudson.model.Job;
+import hudson.model.View;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -97,6 +101,161 @@ public class JobStatusCountTest {
         assertFalse(new JobStatusCount(items(DISABLED)).allOk());
     }
 
+    @Test
+    public void shouldCountEveryJobInView() throws Exception {
+
+        JobStatusCount jobCount = new JobStatusCount(viewWith(items(BLUE, RED, BLUE)), new ViewItemExtractor(), false);
+
+        assertThat(jobCount.total(), is(3));
+        assertThat(jobCount.failed(), is(1));
+    }
+
+    @Test
+    public void shouldStopCountingAtFirstFailureWhenAsked() throws Exception {
+
+        JobStatusCount jobCount = new JobStatusCount(viewWith(items(BLUE, RED, BLUE)), new ViewItemExtractor(), true);
+
+        assertThat(jobCount.total(), is(2));
+        assertTrue(jobCount.hasFailures());
+    }
+
+    @Test
+    public void shouldCountEveryJobInAnItemHoldingJobs() throws Exception {
+
+        JobStatusCount jobCount = new JobStatusCount(asList(item(jobs(BLUE, RED, YELLOW))));
+
+        assertThat(jobCount.total(), is(3));
+        assertThat(jobCount.failed(), is(1));
+        assertThat(jobCount.unstable(), is(1));
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void shouldCountConfigurationsOfMatrixProjectButNotTheProjectItself() throws Exception {
+
+        Collection configurations = jobs(BLUE, RED, BLUE, YELLOW);
+
+        MatrixProject project = org.easymock.classextension.EasyMock.createMock("matrix", MatrixProject.class);
+        EasyMock.expect(project.getItems()).andStubReturn(configurations);
+        EasyMock.expect(project.getIconColor()).andStubReturn(RED);
+
+        List<Job> allJobs = new ArrayList<Job>(configurations);
+        allJobs.add(0, project);
+        EasyMock.expect(project.getAllJobs()).andStubReturn(allJobs);
+        org.easymock.classextension.EasyMock.replay(project);
+
+        JobStatusCount jobCount = new JobStatusCount(asList((TopLevelItem) project));
+
+        assertThat(jobCount.total(), is(4));
+        assertThat(jobCount.failed(), is(1));
+        assertThat(jobCount.unstable(), is(1));
+        assertThat(jobCount.successful(), is(2));
+    }
+
+    @Test
+    public void shouldCountMatrixProjectWithoutConfigurationsAsOneJob() throws Exception {
+
+        MatrixProject project = org.easymock.classextension.EasyMock.createMock("matrix", MatrixProject.class);
+        EasyMock.expect(project.getItems()).andStubReturn(new ArrayList<Job>());
+        EasyMock.expect(project.getIconColor()).andStubReturn(BLUE);
+        EasyMock.expect(project.getAllJobs()).andStubReturn(asList(project));
+        org.easymock.classextension.EasyMock.replay(project);
+
+        JobStatusCount jobCount = new JobStatusCount(asList((TopLevelItem) project));
+
+        assertThat(jobCount.total(), is(1));
+        assertThat(jobCount.successful(), is(1));
+    }
+
+    @Test
+    public void shouldCountItemWithoutJobsOnce() throws Exception {
+
+        JobStatusCount jobCount = new JobStatusCount(asList(item(jobs()), item(null)));
+
+        assertThat(jobCount.total(), is(2));
+        assertTrue(jobCount.allOk());
+    }
+
+    @Test
+    public void shouldReuseSubtotalsForItemsHoldingJobs() throws Exception {
+
+        Folder folder = folder("folder", jobs(BLUE, RED), 1);
+        View v = viewWith(asList((TopLevelItem) folder));
+        ItemSubtotals subtotals = subtotals();
+
+        new JobStatusCount(v, new ViewItemExtractor(), false, null, subtotals);
+        JobStatusCount jobCount = new JobStatusCount(v, new ViewItemExtractor(), false, null, subtotals);
+
+        assertThat(jobCount.total(), is(2));
+        assertThat(jobCount.failed(), is(1));
+        verify(folder);
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void shouldRecountItemWhenAJobInsideChanges() throws Exception {
+
+        Folder folder = folder("folder", jobs(BLUE, RED), 2);
+        View v = viewWith(asList((TopLevelItem) folder));
+        ItemSubtotals subtotals = subtotals();
+
+        Job inside = org.easymock.classextension.EasyMock.createMock("inside", Job.class);
+        EasyMock.expect(inside.getFullName()).andStubReturn("folder/inside");
+        EasyMock.expect(inside.getParent()).andStubReturn(folder);
+        org.easymock.classextension.EasyMock.replay(inside);
+
+        new JobStatusCount(v, new ViewItemExtractor(), false, null, subtotals);
+        subtotals.invalidate(inside);
+        new JobStatusCount(v, new ViewItemExtractor(), false, null, subtotals);
+
+        verify(folder);
+    }
+
+    private ItemSubtotals subtotals() {
+        return new ItemSubtotals() {
+            @Override
+            protected String visibilityKey() {
+                return "user";
+            }
+        };
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private Folder folder(String name, Collection jobs, int counts) {
+
+        Folder folder = createMock(name, Folder.class);
+        expect(folder.getFullName()).andStubReturn(name);
+        expect(folder.getParent()).andStubReturn(null);
+        expect(folder.getAllJobs()).andReturn(jobs).times(counts);
+
+        replay(folder);
+
+        return folder;
+    }
+
+    /**
+     * An item holding other items, like a folder.
+     */
+    private interface Folder extends TopLevelItem, ItemGroup<TopLevelItem> {
+    }
+
+    /**
+     * A job holding other jobs, like a matrix project holding its configurations.
+     */
+    @SuppressWarnings("rawtypes")
+    public abstract static class MatrixProject extends Job implements TopLevelItem, ItemGroup<Job> {
+    }
+
+    private View viewWith(Collection<TopLevelItem> items) {
+
+        View v = org.easymock.classextension.EasyMock.createMock("view", View.class);
+
+        expect(v.getItems()).andStubReturn(items);
+        org.easymock.classextension.EasyMock.replay(v);
+
+        return v;
+    }
+
     private Collection<TopLevelItem> items(BallColor... colours) {
 
         Collection<TopLevelItem> items = new ArrayList<TopLevelItem>();
@@ -119,6 +278,18 @@ public class JobStatusCountTest {
         return item;
     }
 
+    @SuppressWarnings("rawtypes")
+    private Collection jobs(BallColor... colours) {
+
+        List<Job> jobs = new ArrayList<Job>();
+
+        for (BallColor colour : colours) {
+            jobs.add(aJobWith(colour));
+        }
+
+        return jobs;
+    }
+
     @SuppressWarnings("rawtypes")
     private Collection withJobColour(BallColor colour) {
 
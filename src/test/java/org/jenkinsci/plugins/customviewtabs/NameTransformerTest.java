@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class NameTransformerTest {
+
+    /*
+     * Patterns that backtrack catastrophically. Run to completion, each of these takes far longer
+     * than the test timeouts on a name like this one.
+     */
+    private static final String[] PATHOLOGICAL = {
+        "(.*){1,32000}[bc]",
+        "(a*)*\\1b",
+        "((a+)+)\\2b",
+        "(.*a){30}"
+    };
+
+    private static final String SLOW_NAME = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!";
+
+    private NameTransformer names;
+
+    @Before
+    public void setUp() {
+        names = new NameTransformer("(\\w)\\w*|\\s", "$1", 3);
+    }
+
+    @Test
+    public void shouldShortenName() throws Exception {
+
+        assertThat(names.shortName("display name"), is("dis."));
+        assertThat(names.shortName("abc"), is("abc"));
+    }
+
+    @Test
+    public void shouldApplyRegexToName() throws Exception {
+        assertThat(names.regexName("All The Jobs We Have"), is("ATJWH"));
+    }
+
+    @Test
+    public void shouldRememberTransformedNames() throws Exception {
+
+        String regexName = names.regexName("display name");
+        String shortName = names.shortName("display name");
+
+        assertThat(names.regexName("display name"), is(sameInstance(regexName)));
+        assertThat(names.shortName("display name"), is(sameInstance(shortName)));
+    }
+
+    @Test
+    public void shouldBoundNumberOfRememberedNames() throws Exception {
+
+        for (int i = 0; i < NameTransformer.MAX_NAMES * 2; i++) {
+            names.shortName("view " + i);
+        }
+
+        assertThat(names.size(), is(NameTransformer.MAX_NAMES));
+    }
+
+    @Test
+    public void shouldLeaveNameAloneWhenMatchingNothing() throws Exception {
+
+        names = new NameTransformer(NameTransformer.MATCH_NOTHING, "", 3);
+
+        assertThat(names.regexName("display name"), is("display name"));
+    }
+
+    @Test
+    public void shouldLeaveNameAloneWhenReplacementFails() throws Exception {
+
+        names = new NameTransformer("(\\w)\\w*", "$2", 3);
+
+        assertThat(names.regexName("display name"), is("display name"));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldGiveUpOnPathologicalPatternsAndLeaveNameAlone() throws Exception {
+
+        for (String pattern : PATHOLOGICAL) {
+
+            names = new NameTransformer(pattern, "", 3);
+
+            assertThat(pattern, names.regexName(SLOW_NAME), is(SLOW_NAME));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void shouldFindNamesPathologicalPatternsAreSlowOn() throws Exception {
+
+        for (String pattern : PATHOLOGICAL) {
+            assertThat(pattern, NameTransformer.findSlowName(Pattern.compile(pattern)), is(not(nullValue())));
+        }
+    }
+
+    @Test
+    public void shouldNotFindSlowNamesForOrdinaryPatterns() throws Exception {
+
+        assertThat(NameTransformer.findSlowName(Pattern.compile("(\\w)\\w*|\\s")), is(nullValue()));
+        assertThat(NameTransformer.findSlowName(Pattern.compile("[aeiou]")), is(nullValue()));
+        assertThat(NameTransformer.findSlowName(Pattern.compile(NameTransformer.MATCH_NOTHING)), is(nullValue()));
+    }
+}
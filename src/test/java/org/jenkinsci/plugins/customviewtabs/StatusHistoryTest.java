@@ -0,0 +1,180 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import hudson.model.View;
+
+import org.jenkinsci.plugins.customviewtabs.StatusHistory.Series;
+import org.jenkinsci.plugins.customviewtabs.StatusHistory.Trend;
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.Key;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatusHistoryTest {
+
+    private static final long INTERVAL = 1000;
+
+    private StatusHistory history;
+    private Key key;
+
+    @Before
+    public void setUp() {
+
+        history = new StatusHistory();
+        history.configure(3, INTERVAL);
+
+        key = new Key(createMock(View.class), "user");
+    }
+
+    @Test
+    public void shouldShowNoChangeForASingleSample() throws Exception {
+
+        Series series = history.record(key, countsFor(10, 2, 8), 0);
+
+        Trend trend = series.trend(500);
+
+        assertThat(trend.getFailedChange(), is(0));
+        assertThat(trend.getPassRateChange(), is(0));
+    }
+
+    @Test
+    public void shouldShowChangeFromOldestSampleUntilHistoryIsFull() throws Exception {
+
+        history.record(key, countsFor(10, 0, 10), 0);
+        Series series = history.record(key, countsFor(10, 3, 6), INTERVAL);
+
+        Trend trend = series.trend(INTERVAL);
+
+        assertThat(trend.getFailedChange(), is(3));
+        assertThat(trend.getPassRateChange(), is(-40));
+    }
+
+    @Test
+    public void shouldKeepLastCountInEachInterval() throws Exception {
+
+        history.record(key, countsFor(10, 0, 10), 0);
+        history.record(key, countsFor(10, 1, 9), INTERVAL);
+        Series series = history.record(key, countsFor(10, 2, 8), INTERVAL + 500);
+
+        assertThat(series.trend(INTERVAL + 500).getFailedChange(), is(2));
+    }
+
+    @Test
+    public void shouldOverwriteOldestSamples() throws Exception {
+
+        Series series = null;
+        for (int i = 0; i < 10; i++) {
+            series = history.record(key, countsFor(10, i, 10 - i), i * INTERVAL);
+        }
+
+        // Compared with the sample from the start of the three interval window
+        assertThat(series.trend(9 * INTERVAL).getFailedChange(), is(3));
+    }
+
+    @Test
+    public void shouldShowNoChangeOnceCountsHaveBeenSteadyForTheWholeWindow() throws Exception {
+
+        history.record(key, countsFor(10, 0, 10), 0);
+        Series series = history.record(key, countsFor(10, 4, 6), INTERVAL);
+
+        assertThat(series.trend(2 * INTERVAL).getFailedChange(), is(4));
+        assertThat(series.trend(4 * INTERVAL).getFailedChange(), is(0));
+    }
+
+    @Test
+    public void shouldWorkOutTrendOncePerInterval() throws Exception {
+
+        history.record(key, countsFor(10, 0, 10), 0);
+        Series series = history.record(key, countsFor(10, 1, 9), INTERVAL);
+
+        Trend trend = series.trend(INTERVAL);
+
+        assertThat(series.trend(INTERVAL + 999), is(sameInstance(trend)));
+        assertThat(series.trend(2 * INTERVAL), is(not(sameInstance(trend))));
+
+        Trend next = series.trend(2 * INTERVAL);
+        history.record(key, countsFor(10, 2, 8), 2 * INTERVAL);
+
+        assertThat(series.trend(2 * INTERVAL), is(not(sameInstance(next))));
+    }
+
+    @Test
+    public void shouldKeepHistoriesUnderMemoryCap() throws Exception {
+
+        int max = history.getMaxSeries();
+
+        assertThat(max * StatusHistory.bytesPerSeries(3) <= StatusHistory.MAX_BYTES, is(true));
+
+        JobStatusCount jobCount = countsFor(1, 0, 1);
+        Series first = history.record(key, jobCount, 0);
+
+        for (int i = 0; i < max; i++) {
+            history.record(new Key(key.view, "user" + i), jobCount, 0);
+        }
+
+        assertThat(history.size(), is(max));
+        assertThat(history.record(key, jobCount, 0), is(not(sameInstance(first))));
+    }
+
+    @Test
+    public void shouldKeepNothingWhenSwitchedOff() throws Exception {
+
+        history.configure(0, INTERVAL);
+
+        assertThat(history.isEnabled(), is(false));
+        assertThat(history.record(key, countsFor(1, 0, 1), 0), is(nullValue()));
+    }
+
+    @Test
+    public void shouldRenderTrendTokensWithSign() throws Exception {
+
+        long now = System.currentTimeMillis();
+
+        history.record(key, countsFor(10, 1, 9), now - INTERVAL);
+        Series series = history.record(key, countsFor(10, 3, 5), now);
+
+        JobStatusCount jobCount = new JobStatusCount(null);
+        jobCount.setHistory(series);
+
+        TemplateLabelGenerator generator = new TemplateLabelGenerator("$N1 $dF/$dP", "$N1",
+                new NameTransformer("x", "", 3));
+
+        assertThat(generator.generateLabel("All", jobCount, generator.getActiveTemplate()), is("All +2/-40"));
+        assertThat(generator.generateLabel("All", new JobStatusCount(null), generator.getActiveTemplate()),
+                is("All 0/0"));
+    }
+
+    private JobStatusCount countsFor(int total, int failed, int successful) {
+
+        JobStatusCount jobCount = createMock(JobStatusCount.class);
+
+        expect(jobCount.total()).andStubReturn(total);
+        expect(jobCount.failed()).andStubReturn(failed);
+        expect(jobCount.successful()).andStubReturn(successful);
+
+        replay(jobCount);
+
+        return jobCount;
+    }
+}
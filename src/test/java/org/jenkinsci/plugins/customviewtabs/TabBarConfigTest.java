@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.CountMode;
+import org.junit.Test;
+
+public class TabBarConfigTest {
+
+    @Test
+    public void shouldLabelAndColourTab() throws Exception {
+
+        TabDisplayMetaData data = config("$N1 ($T)", "$N1", false, "ff0000").tabDataFor("view", countsFor(true, 3));
+
+        assertThat(data.getActiveLabel(), is("view (3)"));
+        assertThat(data.getInactiveLabel(), is("view"));
+        assertThat(data.getColour(), is("ff0000"));
+    }
+
+    @Test
+    public void shouldShowPlainNameWhenAllOkAndConditionSet() throws Exception {
+
+        TabDisplayMetaData data = config("$N1 ($T)", "$N1 ($T)", true, "ff0000").tabDataFor("view", countsFor(false, 3));
+
+        assertThat(data.getActiveLabel(), is("view"));
+        assertThat(data.getInactiveLabel(), is("view (3)"));
+    }
+
+    @Test
+    public void shouldWorkOutCountMode() throws Exception {
+
+        assertThat(config("$N1 ($T)", "$N1", false, "ff0000").getCountMode(), is(CountMode.FULL));
+        assertThat(config("$N1", "$N1", false, "ff0000").getCountMode(), is(CountMode.UNTIL_FAILURE));
+        assertThat(config("$N1", "$N1", false, "").getCountMode(), is(CountMode.NONE));
+    }
+
+    @Test
+    public void shouldNotSeeLaterChangesToColours() throws Exception {
+
+        TabColours colours = colours("ff0000");
+        TabBarConfig config = new TabBarConfig(generator("$N1", "$N1"), false, false, colours);
+
+        colours.setTabColourFailed("00ff00");
+
+        assertThat(config.tabDataFor("view", countsFor(true, 1)).getColour(), is("ff0000"));
+    }
+
+    @Test
+    public void shouldOnlyShowCountsThatGoFarEnough() throws Exception {
+
+        TabBarConfig full = config("$N1 ($T)", "$N1", false, "ff0000");
+        TabBarConfig colourOnly = config("$N1", "$N1", false, "ff0000");
+
+        JobStatusCount untilFailure = new JobStatusCount(null);
+        untilFailure.countedAs(CountMode.UNTIL_FAILURE);
+
+        assertThat(full.canShow(new JobStatusCount(null)), is(true));
+        assertThat(full.canShow(untilFailure), is(false));
+        assertThat(full.canShow(null), is(false));
+        assertThat(colourOnly.canShow(untilFailure), is(true));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldNotLetSharedTabDataBeChanged() throws Exception {
+        config("$N1", "$N1", false, "ff0000").tabDataFor("view", countsFor(true, 1)).setColour("00ff00");
+    }
+
+    private TabBarConfig config(String active, String inactive, boolean condition, String failedColour) {
+        return new TabBarConfig(generator(active, inactive), condition, false, colours(failedColour));
+    }
+
+    private TemplateLabelGenerator generator(String active, String inactive) {
+        return new TemplateLabelGenerator(active, inactive, new NameTransformer("(\\w)\\w*|\\s", "$1", 3));
+    }
+
+    private TabColours colours(String failed) {
+
+        TabColours colours = new TabColours();
+
+        colours.setTabColourFailed(failed);
+
+        return colours;
+    }
+
+    private JobStatusCount countsFor(boolean failures, int total) {
+
+        JobStatusCount jobCounts = createMock(JobStatusCount.class);
+
+        expect(jobCounts.total()).andStubReturn(total);
+        expect(jobCounts.failed()).andStubReturn(failures ? 1 : 0);
+        expect(jobCounts.unstable()).andStubReturn(0);
+        expect(jobCounts.disabled()).andStubReturn(0);
+        expect(jobCounts.successful()).andStubReturn(failures ? (total - 1) : total);
+        expect(jobCounts.hasFailures()).andStubReturn(failures);
+        expect(jobCounts.hasUnstable()).andStubReturn(false);
+        expect(jobCounts.hasDisabled()).andStubReturn(false);
+        expect(jobCounts.allOk()).andStubReturn(!failures);
+
+        replay(jobCounts);
+
+        return jobCounts;
+    }
+}
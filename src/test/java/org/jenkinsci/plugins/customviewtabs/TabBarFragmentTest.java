@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import hudson.model.View;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TabBarFragmentTest {
+
+    private final TabBarConfig config = new TabBarConfig(new TemplateLabelGenerator("$N1", "$N1",
+            new NameTransformer("(\\w)\\w*|\\s", "$1", 3)), false, false, new TabColours());
+
+    private final List<JobStatusCount> counts = Collections.singletonList(new JobStatusCount(null));
+
+    @Test
+    public void shouldRenderSameMarkupAsCustomTab() throws Exception {
+
+        View all = viewAt("");
+        View mine = viewAt("view/mine/");
+
+        List<TabDisplayMetaData> tabData = Arrays.asList(tabData("All", "all: 3", "ff0000"), tabData("Mine", "mine: 1", ""));
+
+        TabBarFragment fragment = TabBarFragment.render(Arrays.asList(all, mine), tabData, all, "/jenkins");
+
+        assertThat(fragment.toHtml("7"), is(
+                "<div class=\"tab active\"><input type=\"radio\" id=\"tab-7-0\" name=\"tab-group-7\" checked=\"checked\" />"
+                        + "<a href=\"/jenkins/\" style=\"background-color: #ff0000\">All</a></div>"
+                        + "<div class=\"tab\"><input type=\"radio\" id=\"tab-7-1\" name=\"tab-group-7\" />"
+                        + "<a href=\"/jenkins/view/mine/\" style=\"background-color: #\">mine: 1</a></div>"));
+    }
+
+    @Test
+    public void shouldEscapeLabels() throws Exception {
+
+        View v = viewAt("view/x/");
+
+        TabBarFragment fragment = TabBarFragment.render(Collections.singletonList(v),
+                Collections.singletonList(tabData("<b>&\"'</b>", "", "")), v, "");
+
+        assertThat(fragment.toHtml("1"), is(
+                "<div class=\"tab active\"><input type=\"radio\" id=\"tab-1-0\" name=\"tab-group-1\" checked=\"checked\" />"
+                        + "<a href=\"/view/x/\" style=\"background-color: #\">&lt;b&gt;&amp;&quot;&#39;&lt;/b&gt;</a></div>"));
+    }
+
+    @Test
+    public void shouldCountCacheHitsAndMisses() throws Exception {
+
+        TabBarFragmentCache cache = new TabBarFragmentCache();
+        View v = viewAt("");
+        List<View> views = Collections.singletonList(v);
+
+        TabBarFragment fragment = TabBarFragment.render(views, Collections.singletonList(tabData("a", "b", "")), v, "");
+
+        assertThat(cache.get(new TabBarFragmentCache.Key(config, "user", false, 1, counts, 0, "", v, views)), is(nullValue()));
+
+        cache.put(new TabBarFragmentCache.Key(config, "user", false, 1, counts, 0, "", v, views), fragment);
+
+        assertThat(cache.get(new TabBarFragmentCache.Key(config, "user", false, 1, counts, 0, "", v, views)), is(sameInstance(fragment)));
+        assertThat(cache.get(new TabBarFragmentCache.Key(config, "user", false, 2, counts, 0, "", v, views)), is(nullValue()));
+        assertThat(cache.get(new TabBarFragmentCache.Key(config, "other", false, 1, counts, 0, "", v, views)), is(nullValue()));
+
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(3L));
+        assertThat(cache.getHitPercentage(), is(25));
+    }
+
+    @Test
+    public void shouldRenderAgainWhenTrendsMoveOn() throws Exception {
+
+        TabBarFragmentCache cache = new TabBarFragmentCache();
+        View v = viewAt("");
+        List<View> views = Collections.singletonList(v);
+
+        TabBarFragment fragment = TabBarFragment.render(views, Collections.singletonList(tabData("a", "b", "")), v, "");
+
+        cache.put(new TabBarFragmentCache.Key(config, "user", false, 1, counts, 7, "", v, views), fragment);
+
+        assertThat(cache.get(new TabBarFragmentCache.Key(config, "user", false, 1, counts, 7, "", v, views)), is(sameInstance(fragment)));
+        assertThat(cache.get(new TabBarFragmentCache.Key(config, "user", false, 1, counts, 8, "", v, views)), is(nullValue()));
+    }
+
+    @Test
+    public void shouldRenderAgainOnlyWhenCountsShownChange() throws Exception {
+
+        TabBarFragmentCache cache = new TabBarFragmentCache();
+        View v = viewAt("");
+        List<View> views = Collections.singletonList(v);
+
+        TabBarFragment fragment = TabBarFragment.render(views, Collections.singletonList(tabData("a", "b", "")), v, "");
+
+        cache.put(new TabBarFragmentCache.Key(config, "user", false, 1, counts, 0, "", v, views), fragment);
+
+        // The same counts, however many builds of other jobs there have been since
+        List<JobStatusCount> same = Collections.singletonList(counts.get(0));
+        List<JobStatusCount> recounted = Collections.singletonList(new JobStatusCount(null));
+
+        assertThat(cache.get(new TabBarFragmentCache.Key(config, "user", false, 1, same, 0, "", v, views)), is(sameInstance(fragment)));
+        assertThat(cache.get(new TabBarFragmentCache.Key(config, "user", false, 1, recounted, 0, "", v, views)), is(nullValue()));
+    }
+
+    @Test
+    public void shouldRenderAgainWithAnotherConfiguration() throws Exception {
+
+        TabBarFragmentCache cache = new TabBarFragmentCache();
+        View v = viewAt("");
+        List<View> views = Collections.singletonList(v);
+
+        TabBarFragment fragment = TabBarFragment.render(views, Collections.singletonList(tabData("a", "b", "")), v, "");
+
+        cache.put(new TabBarFragmentCache.Key(config, "user", false, 1, counts, 0, "", v, views), fragment);
+
+        TabBarConfig saved = new TabBarConfig(config.getLabelGenerator(), false, false, new TabColours());
+
+        assertThat(cache.get(new TabBarFragmentCache.Key(saved, "user", false, 1, counts, 0, "", v, views)), is(nullValue()));
+    }
+
+    @Test
+    public void shouldEvictOldestTabBars() throws Exception {
+
+        TabBarFragmentCache cache = new TabBarFragmentCache();
+        View v = viewAt("");
+        List<View> views = Collections.singletonList(v);
+
+        TabBarFragment fragment = TabBarFragment.render(views, Collections.singletonList(tabData("a", "b", "")), v, "");
+
+        for (int version = 0; version < TabBarFragmentCache.MAX_FRAGMENTS * 2; version++) {
+            cache.put(new TabBarFragmentCache.Key(config, "user", false, version, counts, 0, "", v, views), fragment);
+        }
+
+        assertThat(cache.size(), is(TabBarFragmentCache.MAX_FRAGMENTS));
+    }
+
+    private View viewAt(String url) {
+
+        View v = createMock(View.class);
+
+        expect(v.getUrl()).andStubReturn(url);
+        replay(v);
+
+        return v;
+    }
+
+    private TabDisplayMetaData tabData(String activeLabel, String inactiveLabel, String colour) {
+
+        TabDisplayMetaData data = createMock(TabDisplayMetaData.class);
+
+        expect(data.getActiveLabel()).andStubReturn(activeLabel);
+        expect(data.getInactiveLabel()).andStubReturn(inactiveLabel);
+        expect(data.getColour()).andStubReturn(colour);
+        replay(data);
+
+        return data;
+    }
+}
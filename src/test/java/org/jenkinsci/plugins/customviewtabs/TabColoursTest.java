@@ -104,6 +104,21 @@ public class TabColoursTest {
         assertThat(tabColours.getColourFor(countsFor(failures, unstable, disabled)), is(yellow));
     }
 
+    @Test
+    public void shouldDependOnStatusWhenColoursDiffer() throws Exception {
+        assertThat(tabColours.dependsOnStatus(), is(true));
+    }
+
+    @Test
+    public void shouldNotDependOnStatusWhenAllColoursAreDefault() throws Exception {
+
+        tabColours.setTabColourFailed(green);
+        tabColours.setTabColourUnstable(green);
+        tabColours.setTabColourDisabled(green);
+
+        assertThat(tabColours.dependsOnStatus(), is(false));
+    }
+
     private JobStatusCount countsFor(boolean failures, boolean unstable, boolean disabled) {
 
         JobStatusCount jobCounts = createMock(JobStatusCount.class);
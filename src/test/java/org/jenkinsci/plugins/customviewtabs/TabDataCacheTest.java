@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class TabDataCacheTest {
+
+    private final TabDataCache cache = new TabDataCache();
+
+    @Test
+    public void shouldReuseTabDataUntilCountsOrNameChange() throws Exception {
+
+        TabBarConfig config = config("ff0000");
+        View v = viewNamed("view");
+        JobStatusCount counts = noJobs();
+
+        TabDisplayMetaData first = cache.tabDataFor(config, v, counts);
+
+        assertThat(cache.tabDataFor(config, v, counts), is(sameInstance(first)));
+        assertThat(cache.tabDataFor(config, v, noJobs()), is(not(sameInstance(first))));
+    }
+
+    @Test
+    public void shouldNotReuseTabDataFromAnotherConfiguration() throws Exception {
+
+        View v = viewNamed("view");
+        JobStatusCount counts = noJobs();
+
+        TabDisplayMetaData first = cache.tabDataFor(config("ff0000"), v, counts);
+
+        assertThat(cache.tabDataFor(config("ff0000"), v, counts), is(not(sameInstance(first))));
+    }
+
+    @Test
+    public void shouldKeepOneTabForEachView() throws Exception {
+
+        TabBarConfig config = config("ff0000");
+        JobStatusCount counts = noJobs();
+
+        cache.tabDataFor(config, viewNamed("a"), counts);
+        cache.tabDataFor(config, viewNamed("b"), counts);
+
+        View v = viewNamed("c");
+        cache.tabDataFor(config, v, counts);
+        cache.tabDataFor(config, v, noJobs());
+
+        assertThat(cache.size(), is(3));
+    }
+
+    private TabBarConfig config(String failedColour) {
+
+        TabColours colours = new TabColours();
+        colours.setTabColourFailed(failedColour);
+
+        return new TabBarConfig(new TemplateLabelGenerator("$N1 ($T)", "$N1", new NameTransformer("(\\w)\\w*|\\s",
+                "$1", 3)), false, false, colours);
+    }
+
+    private JobStatusCount noJobs() {
+        return new JobStatusCount(Collections.<TopLevelItem> emptyList());
+    }
+
+    private View viewNamed(String name) {
+
+        View v = createMock(View.class);
+
+        expect(v.getDisplayName()).andStubReturn(name);
+        replay(v);
+
+        return v;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import hudson.model.View;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.customviewtabs.TabMetrics.ViewMetrics;
+import org.junit.Test;
+
+public class TabMetricsTest {
+
+    private final TabMetrics metrics = new TabMetrics();
+
+    @Test
+    public void shouldTakeP95OfRecentCounts() throws Exception {
+
+        View v = aView();
+
+        for (int i = 1; i <= 100; i++) {
+            metrics.recordCount(v, 0, i, 10);
+        }
+
+        assertThat(metrics.metricsFor(v).getP95Nanos(), is(95L));
+    }
+
+    @Test
+    public void shouldOnlyKeepRecentCounts() throws Exception {
+
+        View v = aView();
+
+        metrics.recordCount(v, 0, 1000000, 10);
+
+        for (int i = 0; i < TabMetrics.SAMPLES; i++) {
+            metrics.recordCount(v, 0, 1, 10);
+        }
+
+        assertThat(metrics.metricsFor(v).getP95Nanos(), is(1L));
+        assertThat(metrics.metricsFor(v).getMisses(), is(TabMetrics.SAMPLES + 1L));
+    }
+
+    @Test
+    public void shouldListSlowestViewsFirst() throws Exception {
+
+        View fast = aView();
+        View slow = aView();
+        View middling = aView();
+
+        metrics.recordCount(fast, 1, 1, 10);
+        metrics.recordCount(slow, 500, 500, 10);
+        metrics.recordCount(middling, 50, 50, 10);
+
+        List<ViewMetrics> slowest = metrics.getSlowest(2);
+
+        assertThat(slowest.size(), is(2));
+        assertThat(slowest.get(0).getView(), is(sameInstance(slow)));
+        assertThat(slowest.get(1).getView(), is(sameInstance(middling)));
+    }
+
+    @Test
+    public void shouldCountHitsAndLabels() throws Exception {
+
+        View v = aView();
+
+        metrics.recordHit(v);
+        metrics.recordHit(v);
+        metrics.recordLabels(v, 4000);
+        metrics.recordLabels(v, 2000);
+
+        assertThat(metrics.metricsFor(v).getHits(), is(2L));
+        assertThat(metrics.metricsFor(v).getMeanLabelMicros(), is(3L));
+    }
+
+    @Test
+    public void shouldKeepOneSetOfMetricsPerViewWhenRecordedConcurrently() throws Exception {
+
+        final View[] views = { aView(), aView(), aView() };
+        final int perThread = 10000;
+        int threads = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> done = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                done.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        for (int i = 0; i < perThread; i++) {
+                            metrics.recordHit(views[i % views.length]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : done) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        long hits = 0;
+        for (View v : views) {
+            assertThat(metrics.metricsFor(v), is(sameInstance(metrics.metricsFor(v))));
+            hits += metrics.metricsFor(v).getHits();
+        }
+
+        assertThat(metrics.size(), is(views.length));
+        assertThat(hits, is((long) threads * perThread));
+    }
+
+    private View aView() {
+
+        View v = createMock(View.class);
+        replay(v);
+
+        return v;
+    }
+}
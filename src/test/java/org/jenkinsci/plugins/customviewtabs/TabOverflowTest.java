@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static java.util.Arrays.asList;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.is;
+import hudson.model.View;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TabOverflowTest {
+
+    private static final Set<String> NONE_PINNED = Collections.emptySet();
+
+    private TabOverflow overflow;
+
+    private View a;
+    private View b;
+    private View c;
+    private View d;
+    private View e;
+
+    private List<View> views;
+
+    @Before
+    public void setUp() {
+
+        overflow = new TabOverflow();
+
+        a = viewNamed("a");
+        b = viewNamed("b");
+        c = viewNamed("c");
+        d = viewNamed("d");
+        e = viewNamed("e");
+
+        views = asList(a, b, c, d, e);
+    }
+
+    @Test
+    public void shouldShowEveryViewWhenNotLimited() throws Exception {
+
+        assertThat(overflow.select(views, c, 0, NONE_PINNED), is(sameInstance(views)));
+        assertThat(overflow.select(views, c, 5, NONE_PINNED), is(sameInstance(views)));
+    }
+
+    @Test
+    public void shouldFillInTabBarOrderAfterCurrentView() throws Exception {
+        assertThat(overflow.select(views, d, 3, NONE_PINNED), contains(a, b, d));
+    }
+
+    @Test
+    public void shouldShowPinnedViewsBeforeOthers() throws Exception {
+        assertThat(overflow.select(views, a, 3, new HashSet<String>(asList("e", "c"))), contains(a, c, e));
+    }
+
+    @Test
+    public void shouldShowMostRecentlyShownViewsBeforeTheRest() throws Exception {
+
+        overflow.shown(c);
+        Thread.sleep(5);
+        overflow.shown(e);
+        Thread.sleep(5);
+        overflow.shown(d);
+
+        assertThat(overflow.select(views, a, 3, NONE_PINNED), contains(a, d, e));
+    }
+
+    @Test
+    public void shouldAlwaysShowCurrentView() throws Exception {
+        assertThat(overflow.select(views, e, 1, new HashSet<String>(asList("a"))), contains(e));
+    }
+
+    private View viewNamed(String name) {
+
+        View v = createMock(View.class);
+
+        expect(v.getViewName()).andStubReturn(name);
+        replay(v);
+
+        return v;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+
+import java.util.ArrayList;
+
+import org.acegisecurity.Authentication;
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.Key;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TabSnapshotsTest {
+
+    private TabStatusCache cache;
+    private TabSnapshots snapshots;
+
+    @Before
+    public void setUp() {
+
+        cache = new TabStatusCache(new ViewItemExtractor()) {
+            @Override
+            public String visibilityKey() {
+                return "user";
+            }
+        };
+
+        snapshots = new TabSnapshots(cache) {
+            @Override
+            protected Authentication authentication() {
+                return null;
+            }
+
+            @Override
+            protected JobStatusCount countAs(Authentication auth, Key key) {
+                return cache.countFor(key.view);
+            }
+        };
+    }
+
+    @Test
+    public void shouldCountLiveByDefault() throws Exception {
+
+        View v = aView();
+
+        JobStatusCount count = snapshots.countFor(v);
+
+        assertThat(snapshots.isLive(), is(true));
+        assertThat(cache.cachedCountFor(v), is(sameInstance(count)));
+
+        cache.invalidateAll();
+
+        assertThat(snapshots.cachedCountFor(v), is(nullValue()));
+    }
+
+    @Test
+    public void shouldShowSnapshotUntilRefreshed() throws Exception {
+
+        snapshots.configure(60000, 60000);
+
+        View v = aView();
+
+        JobStatusCount first = snapshots.countFor(v);
+        long version = snapshots.getVersion();
+
+        cache.invalidateAll();
+
+        assertThat(snapshots.countFor(v), is(sameInstance(first)));
+        assertThat(snapshots.getVersion(), is(version));
+
+        snapshots.refresh();
+
+        assertThat(snapshots.countFor(v), is(not(sameInstance(first))));
+        assertThat(snapshots.getVersion(), is(not(version)));
+    }
+
+    @Test
+    public void shouldNotChangeVersionWhenRefreshFindsNoChanges() throws Exception {
+
+        snapshots.configure(60000, 60000);
+
+        View v = aView();
+
+        JobStatusCount first = snapshots.countFor(v);
+        long version = snapshots.getVersion();
+
+        snapshots.refresh();
+
+        assertThat(snapshots.countFor(v), is(sameInstance(first)));
+        assertThat(snapshots.getVersion(), is(version));
+    }
+
+    @Test
+    public void shouldCountAgainWhenSnapshotTooOld() throws Exception {
+
+        snapshots.configure(60000, 1);
+
+        View v = aView();
+
+        JobStatusCount first = snapshots.countFor(v);
+
+        Thread.sleep(10);
+        cache.invalidateAll();
+
+        assertThat(snapshots.cachedCountFor(v), is(nullValue()));
+        assertThat(snapshots.countFor(v), is(not(sameInstance(first))));
+    }
+
+    @Test
+    public void shouldOnlyRefreshWhenIntervalHasPassed() throws Exception {
+
+        snapshots.configure(60000, 60000);
+
+        snapshots.refresh();
+
+        assertThat(snapshots.isRefreshDue(snapshots.getLastRefresh() + 1000), is(false));
+        assertThat(snapshots.isRefreshDue(snapshots.getLastRefresh() + 60000), is(true));
+    }
+
+    private View aView() {
+
+        View v = createMock(View.class);
+
+        expect(v.getItems()).andStubReturn(new ArrayList<TopLevelItem>());
+        replay(v);
+
+        return v;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.plugins.customviewtabs.TabStatusCache.CountMode;
+import org.junit.Test;
+
+public class TabStatusActionTest {
+
+    // Labels show counts, so the counts written are complete
+    private final TabBarConfig config = new TabBarConfig(new TemplateLabelGenerator("$N1 ($T)", "$N1",
+            new NameTransformer("(\\w)\\w*|\\s", "$1", 3)), false, false, new TabColours());
+
+    @Test
+    public void shouldWriteTabsAsJson() throws Exception {
+
+        View all = createMock(View.class);
+        expect(all.getViewName()).andReturn("All");
+        replay(all);
+
+        View mine = createMock(View.class);
+        expect(mine.getViewName()).andReturn("My \"jobs\"");
+        replay(mine);
+
+        JobStatusCount count = new JobStatusCount(Collections.<TopLevelItem> emptyList());
+
+        CustomViewsTabBar tabBar = createMock(CustomViewsTabBar.class);
+        expect(tabBar.getTabData(all, count, config)).andReturn(new TabDisplayMetaData("All 0", "All", "ff0000"));
+        expect(tabBar.getTabData(mine, count, config)).andReturn(new TabDisplayMetaData("Mine", "Mine", ""));
+        replay(tabBar);
+
+        List<View> views = Arrays.asList(all, mine);
+        StringWriter json = new StringWriter();
+
+        TabStatusAction.writeTabs(new PrintWriter(json), tabBar, config, views, Arrays.asList(count, count));
+
+        assertThat(json.toString(), is("{\"complete\":true,\"tabs\":["
+                + "{\"name\":\"All\",\"activeLabel\":\"All 0\",\"inactiveLabel\":\"All\",\"colour\":\"ff0000\","
+                + "\"total\":0,\"failed\":0,\"unstable\":0,\"disabled\":0,\"successful\":0},"
+                + "{\"name\":\"My \\\"jobs\\\"\",\"activeLabel\":\"Mine\",\"inactiveLabel\":\"Mine\",\"colour\":\"\","
+                + "\"total\":0,\"failed\":0,\"unstable\":0,\"disabled\":0,\"successful\":0}]}"));
+    }
+
+    @Test
+    public void shouldMarkViewsNotCountedInTimeAsPending() throws Exception {
+
+        View mine = createMock(View.class);
+        expect(mine.getViewName()).andReturn("Mine");
+        replay(mine);
+
+        CustomViewsTabBar tabBar = createMock(CustomViewsTabBar.class);
+        expect(tabBar.getTabData(mine, null, config)).andReturn(new TabDisplayMetaData("Mine", "Mine", ""));
+        replay(tabBar);
+
+        StringWriter json = new StringWriter();
+
+        TabStatusAction.writeTabs(new PrintWriter(json), tabBar, config, Arrays.asList(mine),
+                Arrays.asList((JobStatusCount) null));
+
+        assertThat(json.toString(), is("{\"complete\":true,\"pending\":true,\"tabs\":["
+                + "{\"name\":\"Mine\",\"activeLabel\":\"Mine\",\"inactiveLabel\":\"Mine\",\"colour\":\"\","
+                + "\"pending\":true}]}"));
+    }
+
+    @Test
+    public void shouldMarkViewsCountedForAnEarlierConfigurationAsPending() throws Exception {
+
+        View mine = createMock(View.class);
+        expect(mine.getViewName()).andReturn("Mine");
+        replay(mine);
+
+        JobStatusCount untilFailure = new JobStatusCount(Collections.<TopLevelItem> emptyList());
+        untilFailure.countedAs(CountMode.UNTIL_FAILURE);
+
+        CustomViewsTabBar tabBar = createMock(CustomViewsTabBar.class);
+        expect(tabBar.getTabData(mine, untilFailure, config)).andReturn(new TabDisplayMetaData("Mine", "Mine", ""));
+        replay(tabBar);
+
+        StringWriter json = new StringWriter();
+
+        TabStatusAction.writeTabs(new PrintWriter(json), tabBar, config, Arrays.asList(mine),
+                Arrays.asList(untilFailure));
+
+        assertThat(json.toString(), is("{\"complete\":true,\"pending\":true,\"tabs\":["
+                + "{\"name\":\"Mine\",\"activeLabel\":\"Mine\",\"inactiveLabel\":\"Mine\",\"colour\":\"\","
+                + "\"pending\":true}]}"));
+    }
+
+    @Test
+    public void shouldWriteMenuAsJson() throws Exception {
+
+        View mine = createMock(View.class);
+        expect(mine.getViewName()).andReturn("Mine");
+        expect(mine.getUrl()).andReturn("view/Mine/");
+        replay(mine);
+
+        JobStatusCount count = new JobStatusCount(Collections.<TopLevelItem> emptyList());
+
+        CustomViewsTabBar tabBar = createMock(CustomViewsTabBar.class);
+        expect(tabBar.getTabData(mine, count, config)).andReturn(new TabDisplayMetaData("Mine 0", "Mine", "ff0000"));
+        replay(tabBar);
+
+        StringWriter json = new StringWriter();
+
+        TabStatusAction.writeMenu(new PrintWriter(json), tabBar, config, Arrays.asList(mine), Arrays.asList(count));
+
+        assertThat(json.toString(), is("{\"views\":["
+                + "{\"name\":\"Mine\",\"url\":\"view/Mine/\",\"label\":\"Mine\",\"colour\":\"ff0000\"}]}"));
+    }
+
+    @Test
+    public void shouldSelectViewsByName() throws Exception {
+
+        View all = createMock(View.class);
+        expect(all.getViewName()).andStubReturn("All");
+        replay(all);
+
+        View mine = createMock(View.class);
+        expect(mine.getViewName()).andStubReturn("Mine");
+        replay(mine);
+
+        List<View> views = Arrays.asList(all, mine);
+        String[] named = { "Mine" };
+
+        assertThat(TabStatusAction.viewsNamed(views, named, true), is(Arrays.asList(mine)));
+        assertThat(TabStatusAction.viewsNamed(views, named, false), is(Arrays.asList(all)));
+        assertThat(TabStatusAction.viewsNamed(views, null, true), is(views));
+    }
+
+    @Test
+    public void shouldChangeEtagWhenAnyVersionChanges() throws Exception {
+
+        String etag = TabStatusAction.etag(5, 0, 1, "user");
+
+        assertThat(TabStatusAction.etag(5, 0, 1, "user"), is(etag));
+        assertThat(TabStatusAction.etag(6, 0, 1, "user"), is(not(etag)));
+        assertThat(TabStatusAction.etag(5, 3, 1, "user"), is(not(etag)));
+        assertThat(TabStatusAction.etag(5, 0, 2, "user"), is(not(etag)));
+        assertThat(TabStatusAction.etag(5, 0, 1, "other"), is(not(etag)));
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.easymock.classextension.EasyMock.verify;
+import static hudson.model.BallColor.BLUE;
+import static hudson.model.BallColor.RED;
+import static hudson.model.BallColor.YELLOW;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import hudson.model.BallColor;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.ListView;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+import hudson.plugins.nested_view.NestedView;
+import hudson.views.ViewJobFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TabStatusCacheTest {
+
+    private TabStatusCache cache;
+
+    private volatile String visibility = "user";
+    private volatile TopLevelItem changeWhileCounting;
+
+    @Before
+    public void setUp() {
+
+        cache = new TabStatusCache(new ViewItemExtractor() {
+            @Override
+            public long visitItemsInView(View v, ItemVisitor visitor) {
+                long nanos = super.visitItemsInView(v, visitor);
+                if (changeWhileCounting != null) {
+                    cache.invalidate(changeWhileCounting);
+                }
+                return nanos;
+            }
+        }) {
+            @Override
+            public String visibilityKey() {
+                return visibility;
+            }
+        };
+    }
+
+    @Test
+    public void shouldCountViewOnlyOnce() throws Exception {
+
+        View v = aView();
+
+        JobStatusCount first = cache.countFor(v);
+
+        assertThat(cache.countFor(v), is(sameInstance(first)));
+
+        verify(v);
+    }
+
+    @Test
+    public void shouldRecountAfterInvalidateAll() throws Exception {
+
+        View v = viewWithItemsAnyTimes();
+
+        JobStatusCount first = cache.countFor(v);
+        long version = cache.getVersion();
+
+        cache.invalidateAll();
+
+        assertThat(cache.getVersion(), is(not(version)));
+        assertThat(cache.countFor(v), is(not(sameInstance(first))));
+    }
+
+    @Test
+    public void shouldOnlyDropViewsContainingChangedItem() throws Exception {
+
+        TopLevelItem item = anItem();
+
+        View containing = viewContaining(item, true);
+        View other = viewContaining(item, false);
+
+        cache.countFor(containing);
+        cache.countFor(other);
+
+        cache.invalidate(item);
+
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void shouldOnlyDropViewsCountedFromChangedItemWithoutAskingThem() throws Exception {
+
+        TopLevelItem changed = item(BLUE);
+
+        // Not expected to be asked whether they contain the item
+        ListView containing = listViewOf(changed);
+        ListView other = listViewOf(item(BLUE));
+
+        cache.countFor(containing);
+        cache.countFor(other);
+
+        cache.invalidate(changed);
+
+        assertThat(cache.cachedCountFor(containing), is(nullValue()));
+        assertThat(cache.cachedCountFor(other).total(), is(1));
+    }
+
+    @Test
+    public void shouldKeepCountWhenAnotherItemChangesWhileCounting() throws Exception {
+
+        changeWhileCounting = item(RED);
+
+        View v = viewOf(item(BLUE));
+        expect(v.contains(changeWhileCounting)).andStubReturn(false);
+        replay(v);
+
+        cache.countFor(v);
+
+        assertThat(cache.cachedCountFor(v), is(not(nullValue())));
+    }
+
+    @Test
+    public void shouldNotKeepCountWhenOneOfItsItemsChangesWhileCounting() throws Exception {
+
+        changeWhileCounting = item(RED);
+
+        ListView v = listViewOf(changeWhileCounting);
+
+        assertThat(cache.countFor(v).failed(), is(1));
+        assertThat(cache.cachedCountFor(v), is(nullValue()));
+    }
+
+    @Test
+    public void shouldOnlyDropCountsForUserWhoChanged() throws Exception {
+
+        View v = viewWithItemsAnyTimes();
+
+        cache.countFor(v);
+        visibility = "other";
+        cache.countFor(v);
+
+        cache.invalidateUser("user");
+
+        assertThat(cache.size(), is(1));
+        assertThat(cache.cachedCountFor(v), is(not(nullValue())));
+    }
+
+    @Test
+    public void shouldCountNestedViewFromChildResults() throws Exception {
+
+        View first = viewOf(item(BLUE));
+        View second = viewOf(item(RED));
+        NestedView parent = nestedViewOf(first, second);
+
+        JobStatusCount parentCount = cache.countFor(parent);
+
+        assertThat(parentCount.total(), is(2));
+        assertThat(parentCount.failed(), is(1));
+        assertThat(cache.countFor(first).total(), is(1));
+        assertThat(cache.countFor(second).total(), is(1));
+
+        verify(first, second);
+    }
+
+    @Test
+    public void shouldCountJobsSharedByChildrenOnce() throws Exception {
+
+        TopLevelItem shared = item(RED);
+
+        NestedView parent = nestedViewOf(viewOf(item(BLUE), shared), viewOf(shared, item(YELLOW)));
+
+        JobStatusCount parentCount = cache.countFor(parent);
+
+        assertThat(parentCount.total(), is(3));
+        assertThat(parentCount.failed(), is(1));
+        assertThat(parentCount.successful(), is(1));
+        assertThat(parentCount.unstable(), is(1));
+    }
+
+    @Test
+    public void shouldTakeSharedJobOutAsTheChildCountedIt() throws Exception {
+
+        // Fails in both children, then finishes a passing build before the parent is added up
+        TopLevelItem shared = itemChanging(RED, 2, BLUE);
+
+        NestedView parent = nestedViewOf(viewOf(shared), viewOf(shared));
+
+        JobStatusCount parentCount = cache.countFor(parent);
+
+        assertThat(parentCount.total(), is(1));
+        assertThat(parentCount.failed(), is(1));
+        assertThat(parentCount.successful(), is(0));
+    }
+
+    @Test
+    public void shouldDropNestedViewWhenChildChanges() throws Exception {
+
+        TopLevelItem changed = item(BLUE);
+
+        View containing = viewOf(changed);
+        View other = viewOf(item(BLUE));
+        expect(containing.contains(changed)).andStubReturn(true);
+        expect(other.contains(changed)).andStubReturn(false);
+
+        NestedView parent = nestedViewOf(containing, other);
+
+        cache.countFor(parent);
+        assertThat(cache.size(), is(3));
+
+        cache.invalidate(changed);
+
+        assertThat(cache.size(), is(1));
+        assertThat(cache.cachedCountFor(other).total(), is(1));
+    }
+
+    private View viewOf(TopLevelItem... items) {
+
+        View v = createMock(View.class);
+
+        expect(v.getItems()).andReturn(asList(items)).once();
+
+        return v;
+    }
+
+    private ListView listViewOf(TopLevelItem... items) {
+
+        ListView v = createMock(ListView.class);
+
+        expect(v.getJobFilters()).andStubReturn(Collections.<ViewJobFilter> emptyList());
+        expect(v.getStatusFilter()).andStubReturn(null);
+        expect(v.getItems()).andReturn(asList(items)).once();
+        replay(v);
+
+        return v;
+    }
+
+    private NestedView nestedViewOf(View... children) {
+
+        NestedView v = createMock(NestedView.class);
+
+        expect(v.getViews()).andStubReturn(asList(children));
+        replay(children);
+        replay(v);
+
+        return v;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TopLevelItem item(BallColor colour) {
+
+        TopLevelItem item = createMock(TopLevelItem.class);
+        ItemGroup jenkins = createMock(ItemGroup.class);
+        Job job = createMock(Job.class);
+
+        expect(item.getParent()).andStubReturn(jenkins);
+        expect(item.getAllJobs()).andStubReturn(Collections.singletonList(job));
+        expect(job.getIconColor()).andStubReturn(colour);
+        replay(item, jenkins, job);
+
+        return item;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TopLevelItem itemChanging(BallColor colour, int times, BallColor later) {
+
+        TopLevelItem item = createMock(TopLevelItem.class);
+        ItemGroup jenkins = createMock(ItemGroup.class);
+        Job job = createMock(Job.class);
+
+        expect(item.getParent()).andStubReturn(jenkins);
+        expect(item.getAllJobs()).andStubReturn(Collections.singletonList(job));
+        expect(job.getIconColor()).andReturn(colour).times(times).andStubReturn(later);
+        replay(item, jenkins, job);
+
+        return item;
+    }
+
+    private View aView() {
+
+        View v = createMock(View.class);
+
+        expect(v.getItems()).andReturn(new ArrayList<TopLevelItem>()).once();
+        replay(v);
+
+        return v;
+    }
+
+    private View viewContaining(TopLevelItem item, boolean contains) {
+
+        View v = createMock(View.class);
+
+        expect(v.getItems()).andReturn(new ArrayList<TopLevelItem>()).once();
+        expect(v.contains(item)).andStubReturn(contains);
+        replay(v);
+
+        return v;
+    }
+
+    private View viewWithItemsAnyTimes() {
+
+        View v = createMock(View.class);
+        Collection<TopLevelItem> items = new ArrayList<TopLevelItem>();
+
+        expect(v.getItems()).andStubReturn(items);
+        replay(v);
+
+        return v;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TopLevelItem anItem() {
+
+        TopLevelItem item = createMock(TopLevelItem.class);
+        ItemGroup jenkins = createMock(ItemGroup.class);
+
+        expect(item.getParent()).andStubReturn(jenkins);
+        replay(item, jenkins);
+
+        return item;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TabTimeBudgetTest {
+
+    private volatile long extractMillis;
+
+    private ExecutorService executor;
+    private TabStatusCache cache;
+    private TabTimeBudget budget;
+
+    @Before
+    public void setUp() {
+
+        executor = Executors.newSingleThreadExecutor();
+
+        cache = new TabStatusCache(new ViewItemExtractor() {
+            @Override
+            public long visitItemsInView(View v, ItemVisitor visitor) {
+                try {
+                    Thread.sleep(extractMillis);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.visitItemsInView(v, visitor);
+            }
+        }) {
+            @Override
+            public String visibilityKey() {
+                return "user";
+            }
+        };
+
+        budget = new TabTimeBudget(cache, new TabSnapshots(cache)) {
+            @Override
+            protected void submit(Callable<Void> task) {
+                executor.submit(task);
+            }
+        };
+
+        budget.setBudget(50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldCountWithinBudget() throws Exception {
+
+        View v = aView();
+        List<JobStatusCount> counts = countWithin(v);
+
+        assertThat(counts.get(0), is(not(nullValue())));
+        assertThat(budget.getFallbacks(), is(0L));
+    }
+
+    @Test
+    public void shouldLeaveViewUncountedWhenOverBudgetAndCacheItLater() throws Exception {
+
+        extractMillis = 500;
+
+        View v = aView();
+        List<JobStatusCount> counts = countWithin(v);
+
+        assertThat(counts.get(0), is(nullValue()));
+        assertThat(budget.getFallbacks(), is(1L));
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(cache.cachedCountFor(v), is(not(nullValue())));
+    }
+
+    @Test
+    public void shouldServeRepeatedlySlowViewFromLastCount() throws Exception {
+
+        View v = aView();
+        JobStatusCount last = new JobStatusCount(Collections.<TopLevelItem> emptyList());
+
+        for (int i = 0; i < TabTimeBudget.STRIKES; i++) {
+            assertThat(budget.isTripped(v), is(false));
+            budget.record(cache.keyFor(v), last, TimeUnit.SECONDS.toNanos(1));
+        }
+
+        assertThat(budget.isTripped(v), is(true));
+
+        extractMillis = 500;
+
+        // Not waited for at all, even though it isn't cached
+        long start = System.nanoTime();
+        List<JobStatusCount> counts = countWithin(v);
+
+        assertThat(counts.get(0), is(sameInstance(last)));
+        assertThat(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(250), is(true));
+    }
+
+    @Test
+    public void shouldResetWhenCountedWithinBudget() throws Exception {
+
+        View v = aView();
+        JobStatusCount count = new JobStatusCount(Collections.<TopLevelItem> emptyList());
+
+        for (int i = 0; i < TabTimeBudget.STRIKES; i++) {
+            budget.record(cache.keyFor(v), count, TimeUnit.SECONDS.toNanos(1));
+        }
+
+        budget.record(cache.keyFor(v), count, TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertThat(budget.isTripped(v), is(false));
+    }
+
+    @Test
+    public void shouldNeedSlowCountsInARowToTrip() throws Exception {
+
+        View v = aView();
+        JobStatusCount count = new JobStatusCount(Collections.<TopLevelItem> emptyList());
+
+        for (int i = 0; i < TabTimeBudget.STRIKES; i++) {
+            budget.record(cache.keyFor(v), count, TimeUnit.SECONDS.toNanos(1));
+            budget.record(cache.keyFor(v), count, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        assertThat(budget.isTripped(v), is(false));
+    }
+
+    private List<JobStatusCount> countWithin(View v) {
+
+        List<JobStatusCount> counts = new ArrayList<JobStatusCount>(Collections.<JobStatusCount> nCopies(1, null));
+
+        budget.countWithin(Collections.singletonList(v), Arrays.asList(0), counts);
+
+        return counts;
+    }
+
+    private View aView() {
+
+        View v = createMock(View.class);
+
+        expect(v.getItems()).andStubReturn(new ArrayList<TopLevelItem>());
+        replay(v);
+
+        return v;
+    }
+}
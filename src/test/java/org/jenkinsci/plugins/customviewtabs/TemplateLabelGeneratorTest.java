@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jenkinsci.plugins.customviewtabs.LabelTemplate.Token;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TemplateLabelGeneratorTest {
+
+    private static final String[] NAMES = { "display name", "All The Jobs We Have", "x", "" };
+    private static final String[] SEPARATORS = { "", " ", ": ", "/", "$", "$X", "N1" };
+
+    private String nameRegexMatch = "(\\w)\\w*|\\s";
+    private String nameRegexReplacement = "$1";
+    private int shortNameLength = 3;
+
+    private JobStatusCount jobCount;
+
+    private StringReplacementLabelGenerator expected;
+
+    @Before
+    public void setUp() {
+
+        jobCount = countsFor(1, 2, 3, 4);
+
+        expected = new StringReplacementLabelGenerator(nameRegexMatch, nameRegexReplacement, shortNameLength);
+    }
+
+    @Test
+    public void shouldMatchStringReplacementForEverySubsetOfTokens() throws Exception {
+
+        Token[] tokens = Token.values();
+
+        for (int subset = 0; subset < (1 << tokens.length); subset++) {
+
+            List<Token> selected = new ArrayList<Token>();
+            for (int i = 0; i < tokens.length; i++) {
+                if ((subset & (1 << i)) != 0) {
+                    selected.add(tokens[i]);
+                }
+            }
+
+            for (String separator : SEPARATORS) {
+                assertSameLabels(join(selected, separator));
+            }
+        }
+    }
+
+    @Test
+    public void shouldMatchStringReplacementForEveryPairOfTokens() throws Exception {
+
+        for (Token first : Token.values()) {
+            for (Token second : Token.values()) {
+                for (String separator : SEPARATORS) {
+                    assertSameLabels(first.getText() + separator + second.getText());
+                    assertSameLabels(separator + first.getText() + second.getText() + separator);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldMatchStringReplacementForPlainText() throws Exception {
+
+        assertSameLabels("");
+        assertSameLabels("plain");
+        assertSameLabels("$");
+        assertSameLabels("$N");
+        assertSameLabels("$N4 $n1 $t");
+        assertSameLabels("$$T$$");
+    }
+
+    @Test
+    public void shouldRenderInactivePatternFromCompiledTemplate() throws Exception {
+
+        TemplateLabelGenerator generator = generatorFor("$N1", "$N2 $S/$T");
+
+        assertThat(generator.generateLabel("display name", jobCount, generator.getInactiveTemplate()), is("dis. 1/10"));
+    }
+
+    private void assertSameLabels(String pattern) {
+
+        for (String name : NAMES) {
+
+            TemplateLabelGenerator generator = generatorFor(pattern, "$N1");
+
+            assertThat(pattern, generator.generateLabel(name, jobCount, pattern),
+                    is(expected.generateLabel(name, jobCount, pattern)));
+
+            assertThat(pattern, generatorFor("$N1", "$T").generateLabel(name, jobCount, pattern),
+                    is(expected.generateLabel(name, jobCount, pattern)));
+        }
+    }
+
+    private TemplateLabelGenerator generatorFor(String patternActiveTab, String patternInactiveTab) {
+        return new TemplateLabelGenerator(patternActiveTab, patternInactiveTab,
+                new NameTransformer(nameRegexMatch, nameRegexReplacement, shortNameLength));
+    }
+
+    private String join(List<Token> tokens, String separator) {
+
+        StringBuilder pattern = new StringBuilder();
+
+        for (Token token : tokens) {
+            if (pattern.length() > 0) {
+                pattern.append(separator);
+            }
+            pattern.append(token.getText());
+        }
+
+        return pattern.toString();
+    }
+
+    private JobStatusCount countsFor(int successful, int failures, int unstable, int disabled) {
+
+        JobStatusCount jobCounts = createMock(JobStatusCount.class);
+
+        expect(jobCounts.total()).andStubReturn(successful + failures + unstable + disabled);
+        expect(jobCounts.failed()).andStubReturn(failures);
+        expect(jobCounts.unstable()).andStubReturn(unstable);
+        expect(jobCounts.disabled()).andStubReturn(disabled);
+        expect(jobCounts.successful()).andStubReturn(successful);
+        expect(jobCounts.trend()).andStubReturn(new StatusHistory.Trend(0, failures, -successful));
+
+        replay(jobCounts);
+
+        return jobCounts;
+    }
+}
@@ -25,9 +25,11 @@ import hudson.model.View;
 import hudson.plugins.nested_view.NestedView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
+import org.jenkinsci.plugins.customviewtabs.ViewItemExtractor.ItemVisitor;
 import org.junit.Test;
 
 public class ViewItemExtractorTest {
@@ -81,4 +83,92 @@ public class ViewItemExtractorTest {
         assertThat(new ViewItemExtractor().getItemsInView(n).size(), is(4));
 
     }
+
+    @Test
+    public void shouldOnlyGetItemsInSeveralNestedViewsOnce() throws Exception {
+
+        TopLevelItem shared = createMock(TopLevelItem.class);
+
+        View first = viewWith(shared, createMock(TopLevelItem.class));
+        View second = viewWith(shared, createMock(TopLevelItem.class));
+
+        NestedView n = nestedViewOf(first, second);
+
+        assertThat(new ViewItemExtractor().getItemsInView(n).size(), is(3));
+    }
+
+    @Test
+    public void shouldNotGetItemsTwiceForViewReachedTwice() throws Exception {
+
+        View v = viewWith(createMock(TopLevelItem.class), createMock(TopLevelItem.class));
+
+        NestedView inner = nestedViewOf(v);
+        NestedView outer = nestedViewOf(v, inner);
+
+        assertThat(new ViewItemExtractor().getItemsInView(outer).size(), is(2));
+    }
+
+    @Test
+    public void shouldStopAtNestedViewCycle() throws Exception {
+
+        View v = viewWith(createMock(TopLevelItem.class));
+
+        NestedView n = createMock(NestedView.class);
+        expect(n.getViews()).andStubReturn(Arrays.asList(v, n));
+        replay(n);
+
+        assertThat(new ViewItemExtractor().getItemsInView(n).size(), is(1));
+    }
+
+    @Test
+    public void shouldIgnoreViewsNestedTooDeep() throws Exception {
+
+        View v = createMock(View.class);
+        replay(v);
+
+        View n = v;
+        for (int depth = 0; depth <= ViewItemExtractor.MAX_DEPTH; depth++) {
+            n = nestedViewOf(n);
+        }
+
+        assertThat(new ViewItemExtractor().getItemsInView(n).size(), is(0));
+    }
+
+    @Test
+    public void shouldStopWhenVisitorIsDone() throws Exception {
+
+        View v = viewWith(createMock(TopLevelItem.class), createMock(TopLevelItem.class));
+
+        final Collection<TopLevelItem> visited = new ArrayList<TopLevelItem>();
+
+        new ViewItemExtractor().visitItemsInView(v, new ItemVisitor() {
+            public boolean visit(TopLevelItem item) {
+                visited.add(item);
+                return false;
+            }
+        });
+
+        assertThat(visited.size(), is(1));
+    }
+
+    private View viewWith(TopLevelItem... items) {
+
+        View v = createMock(View.class);
+
+        expect(v.getItems()).andReturn(Arrays.asList(items)).once();
+        replay(v);
+
+        return v;
+    }
+
+    private NestedView nestedViewOf(View... views) {
+
+        NestedView n = createMock(NestedView.class);
+
+        expect(n.getViews()).andStubReturn(Arrays.asList(views));
+        expect(n.getViewName()).andStubReturn("nested");
+        replay(n);
+
+        return n;
+    }
 }
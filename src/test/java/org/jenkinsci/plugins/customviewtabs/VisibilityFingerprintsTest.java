@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.customviewtabs;
+
+import static java.util.Arrays.asList;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.classextension.EasyMock.createMock;
+import static org.easymock.classextension.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import hudson.model.AllView;
+import hudson.model.Descriptor;
+import hudson.model.ListView;
+import hudson.model.Saveable;
+import hudson.model.View;
+import hudson.plugins.nested_view.NestedView;
+import hudson.util.DescribableList;
+import hudson.views.ViewJobFilter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VisibilityFingerprintsTest {
+
+    private final Map<String, List<String>> readable = new HashMap<String, List<String>>();
+
+    private String user;
+
+    private VisibilityFingerprints fingerprints;
+
+    @Before
+    public void setUp() {
+
+        readable.put("alice", asList("a", "b", "folder/c"));
+        readable.put("bob", asList("a", "b", "folder/c"));
+        readable.put("carol", asList("a", "b"));
+
+        fingerprints = new VisibilityFingerprints() {
+            @Override
+            protected String userName() {
+                return user;
+            }
+
+            @Override
+            protected Iterable<String> readableItemNames() {
+                return readable.get(user);
+            }
+        };
+    }
+
+    @Test
+    public void shouldShareKeyBetweenUsersWhoCanReadTheSameItems() throws Exception {
+
+        View v = createMock(AllView.class);
+
+        assertThat(keyFor("alice", v), is(keyFor("bob", v)));
+        assertThat(keyFor("alice", v), is(not(keyFor("carol", v))));
+
+        assertThat(fingerprints.size(), is(3));
+        assertThat(fingerprints.getGroupCount(), is(2));
+    }
+
+    @Test
+    public void shouldKeepKeysPerUserForViewsThatMayDependOnTheUser() throws Exception {
+
+        View v = createMock(View.class);
+
+        assertThat(keyFor("alice", v), is(not(keyFor("bob", v))));
+    }
+
+    @Test
+    public void shouldOnlyShareListViewsWithoutJobFilters() throws Exception {
+
+        ListView plain = createMock(ListView.class);
+        expect(plain.getJobFilters()).andStubReturn(
+                new DescribableList<ViewJobFilter, Descriptor<ViewJobFilter>>(Saveable.NOOP));
+
+        ListView filtered = createMock(ListView.class);
+        expect(filtered.getJobFilters()).andStubReturn(
+                new DescribableList<ViewJobFilter, Descriptor<ViewJobFilter>>(Saveable.NOOP,
+                        asList(createMock(ViewJobFilter.class))));
+
+        replay(plain, filtered);
+
+        assertThat(keyFor("alice", plain), is(keyFor("bob", plain)));
+        assertThat(keyFor("alice", filtered), is(not(keyFor("bob", filtered))));
+    }
+
+    @Test
+    public void shouldOnlyShareNestedViewsWhenEveryChildIsShared() throws Exception {
+
+        NestedView shared = createMock(NestedView.class);
+        expect(shared.getViews()).andStubReturn(asList((View) createMock(AllView.class)));
+
+        NestedView notShared = createMock(NestedView.class);
+        expect(notShared.getViews()).andStubReturn(asList(createMock(AllView.class), createMock(View.class)));
+
+        replay(shared, notShared);
+
+        assertThat(keyFor("alice", shared), is(keyFor("bob", shared)));
+        assertThat(keyFor("alice", notShared), is(not(keyFor("bob", notShared))));
+    }
+
+    @Test
+    public void shouldTakeFingerprintAgainAfterInvalidateAll() throws Exception {
+
+        View v = createMock(AllView.class);
+
+        String before = keyFor("alice", v);
+
+        readable.put("alice", asList("a"));
+        assertThat(keyFor("alice", v), is(before));
+        assertThat(fingerprints.getHits(), is(1L));
+
+        fingerprints.invalidateAll();
+
+        assertThat(keyFor("alice", v), is(not(before)));
+    }
+
+    @Test
+    public void shouldOnlyForgetFingerprintsWhenSavedPermissionsChange() throws Exception {
+
+        View v = createMock(AllView.class);
+
+        assertThat(fingerprints.saved("job", "<properties/>"), is(true));
+
+        String before = keyFor("alice", v);
+        readable.put("alice", asList("a"));
+
+        // Saved again as it builds, with the same properties
+        assertThat(fingerprints.saved("job", "<properties/>"), is(false));
+        assertThat(fingerprints.saved("job", "<properties/>"), is(false));
+        assertThat(keyFor("alice", v), is(before));
+
+        assertThat(fingerprints.saved("job", "<properties><authorization/></properties>"), is(true));
+        assertThat(keyFor("alice", v), is(not(before)));
+    }
+
+    @Test
+    public void shouldTreatFirstSaveAndUnreadableSettingsAsChanges() throws Exception {
+
+        assertThat(fingerprints.saved("job", "<properties/>"), is(true));
+        assertThat(fingerprints.saved("other", "<properties/>"), is(true));
+        assertThat(fingerprints.saved("job", null), is(true));
+        assertThat(fingerprints.saved("job", "<properties/>"), is(true));
+
+        fingerprints.forgetSaved("other");
+
+        assertThat(fingerprints.saved("other", "<properties/>"), is(true));
+    }
+
+    @Test
+    public void shouldNotConfuseNamesThatRunTogether() throws Exception {
+        assertThat(VisibilityFingerprints.hash(asList("ab", "c")), is(not(VisibilityFingerprints.hash(asList("a", "bc")))));
+    }
+
+    private String keyFor(String name, View v) {
+        user = name;
+        return fingerprints.keyFor(v);
+    }
+}